@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Sends the same message to every peer concurrently and collects the outcome per peer.
+ * Each message goes through the peer's outbound channel, so a broadcast costs roughly the
+ * latency of the slowest peer instead of the sum over all peers.
+ */
+public class Broadcaster {
+
+    private Broadcaster() {
+    }
+
+    // Enqueue message on all channels without waiting; the future completes once every delivery has settled
+    public static CompletableFuture<Result> broadcastAsync(List<PeerChannel> channels, PeerChannel.Message message) {
+        Map<Integer, CompletableFuture<Void>> deliveries = enqueue(channels, message);
+        return CompletableFuture.allOf(deliveries.values().toArray(new CompletableFuture<?>[0]))
+            .handle((ignored, failure) -> collect(deliveries));
+    }
+
+    private static Map<Integer, CompletableFuture<Void>> enqueue(List<PeerChannel> channels, PeerChannel.Message message) {
+        Map<Integer, CompletableFuture<Void>> deliveries = new LinkedHashMap<>();
+        for (PeerChannel channel : channels) {
+            deliveries.put(channel.getPeerId(), channel.send(message));
+        }
+        return deliveries;
+    }
+
+    private static Result collect(Map<Integer, CompletableFuture<Void>> deliveries) {
+        Result result = new Result();
+        for (Map.Entry<Integer, CompletableFuture<Void>> entry : deliveries.entrySet()) {
+            CompletableFuture<Void> delivery = entry.getValue();
+            if (delivery.isCompletedExceptionally()) {
+                try {
+                    delivery.join();
+                } catch (CompletionException e) {
+                    result.failures.put(entry.getKey(), e.getCause() != null ? e.getCause() : e);
+                }
+            } else {
+                result.delivered.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Per-peer outcome of a single broadcast, keyed by peer node id
+     */
+    public static class Result {
+        private final List<Integer> delivered = new ArrayList<>();
+        private final Map<Integer, Throwable> failures = new LinkedHashMap<>();
+
+        public List<Integer> getDelivered() {
+            return Collections.unmodifiableList(delivered);
+        }
+
+        public Map<Integer, Throwable> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        public boolean allDelivered() {
+            return failures.isEmpty();
+        }
+    }
+}
@@ -2,40 +2,159 @@ import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
 
 public class Config {
     
     public static final String RMI_REGISTRY_HOST = System.getProperty("registry.host", "localhost");
     public static final int RMI_REGISTRY_PORT = Integer.parseInt(System.getProperty("registry.port", "1099"));
     public static final String LOCAL_HOST = resolveLocalHost();
-    public static final int BASE_NODE_PORT = 2000;
+    
+    // Port a node in multi-machine mode listens on; 0 (default) takes any free port, since peers learn the
+    // actual address from the registry. Set it when a firewall only lets specific ports through.
+    public static final int NODE_PORT = Integer.getInteger("node.port", 0);
+    
+    // Transport for node messages: "rmi" (default), "nio" (binary frames over persistent TCP connections)
+    // or "local" (in-memory handoff, single-machine mode only). The NodeRegistry itself always runs over RMI.
+    public static final String TRANSPORT = System.getProperty("transport", "rmi");
+    private static final List<String> TRANSPORTS = List.of("rmi", "nio", "local");
     
     public static final int MIN_NODES = 2;
-    public static final int MAX_NODES = 10;
+    public static final int MAX_NODES = 500;         // Single-machine mode over rmi or nio; multi-machine mode has no fixed limit
+    public static final int MAX_LOCAL_NODES = 2000;  // No ports needed; every node keeps a channel per peer, ~250 MB of heap at 1000 nodes
     
     // Optimized timing parameters
     public static final int MIN_REQUEST_DELAY = 1000;    // ms - Reduced minimum delay for better responsiveness
     public static final int MAX_REQUEST_DELAY = 10000;    // ms - Reduced maximum delay for faster recovery
     public static final int MIN_CS_WORK_TIME = 500;      // ms - Reduced minimum work time for faster throughput
     public static final int MAX_CS_WORK_TIME = 3000;     // ms - Reduced maximum for more predictable performance
-    public static final int POLLING_INTERVAL = 500;      // ms - More responsive to incoming messages
+    
+    // Workload (see Workload): arrival process "closed" (a think time between acquisitions, the default) or the
+    // open-loop "fixed", "poisson" and "burst" at WORKLOAD_RATE acquisitions/s per node; think and CS times as
+    // durations in ms ("0", "50", "uniform:10-100", "exp:20"); Zipf skew of the load across the nodes of a process
+    public static final String WORKLOAD_ARRIVAL = System.getProperty("workload.arrival", "closed");
+    public static final double WORKLOAD_RATE = Double.parseDouble(System.getProperty("workload.rate", "1"));
+    public static final int WORKLOAD_BURST_SIZE = Integer.getInteger("workload.burst", 10);
+    public static final String WORKLOAD_THINK_TIME = System.getProperty("workload.think", "uniform:" + MIN_REQUEST_DELAY + "-" + MAX_REQUEST_DELAY);
+    public static final String WORKLOAD_CS_TIME = System.getProperty("workload.cs", "uniform:" + MIN_CS_WORK_TIME + "-" + MAX_CS_WORK_TIME);
+    public static final double WORKLOAD_SKEW = Double.parseDouble(System.getProperty("workload.skew", "0"));
+    // Share of acquisitions that only read, taking the critical section shared (0 to 1)
+    public static final double WORKLOAD_READS = Double.parseDouble(System.getProperty("workload.reads", "0"));
+    
+    // Open loop: arrivals beyond this many in progress at one node are dropped and counted
+    public static final int WORKLOAD_MAX_OUTSTANDING = Integer.getInteger("workload.outstanding", 1000);
+    
+    // Run length in seconds, after which the report is printed and the process exits; 0 runs until 'q'
+    public static final long WORKLOAD_DURATION_S = Long.getLong("workload.duration.s", 0);
+    
+    // Simulator (see Simulator): cluster size, simulated run length and the seed that makes a run repeatable;
+    // one-way message latency as a duration in ms, whether a link may reorder messages (FIFO otherwise) and
+    // the probability that a message is lost
+    public static final int SIM_NODES = Integer.getInteger("sim.nodes", 10);
+    public static final long SIM_SECONDS = Long.getLong("sim.seconds", 3600);
+    public static final long SIM_SEED = Long.getLong("sim.seed", 1);
+    public static final String SIM_LATENCY = System.getProperty("sim.latency", "exp:1");
+    public static final boolean SIM_REORDER = Boolean.parseBoolean(System.getProperty("sim.reorder", "false"));
+    public static final double SIM_DROP = Double.parseDouble(System.getProperty("sim.drop", "0"));
     
     // Timeout configuration
-    public static final int NODE_RESPONSE_TIMEOUT_MS = 5000;  // 10 seconds timeout for node responses
+    public static final int NODE_RESPONSE_TIMEOUT_MS = 5000;  // 5 seconds timeout for node responses
+    
+    // Membership: how long the registry may hold a long poll, and how long a joining peer has to answer a probe
+    public static final long MEMBERSHIP_POLL_TIMEOUT_MS = 30000;
+    public static final long PEER_PROBE_TIMEOUT_MS = 2000;
+    
+    // Failure detection: peers are sent a Node.isAlive() heartbeat every HEARTBEAT_INTERVAL_MS and suspected
+    // once phi reaches PHI_THRESHOLD (8 is roughly 2 s of silence at the default interval). 0 turns it off.
+    public static final long HEARTBEAT_INTERVAL_MS = Long.getLong("fd.interval.ms", 500);
+    public static final double PHI_THRESHOLD = Double.parseDouble(System.getProperty("fd.phi", "8"));
+    
+    // Mutual exclusion algorithm: "ricart-agrawala" (default); "roucairol-carvalho", which keeps permissions
+    // granted by idle peers so uncontended re-entry costs no messages; or "maekawa", which only asks a grid
+    // quorum of about 2*sqrt(N) nodes (see MaekawaEngine); or "suzuki-kasami", which passes a single token
+    // (see SuzukiKasamiEngine) and suits high contention. Every node of a cluster must run the same one.
+    public static final String ALGORITHM = System.getProperty("algorithm", "ricart-agrawala");
+    private static final List<String> ALGORITHMS = List.of("ricart-agrawala", "roucairol-carvalho", "maekawa", "suzuki-kasami");
+    
+    // Local threads queued behind the holder are handed the critical section without a new round;
+    // once a peer is waiting, at most LOCAL_HANDOFF_BUDGET times in a row. 0 gives every thread its own round.
+    public static final int LOCAL_HANDOFF_BUDGET = Integer.getInteger("lock.handoffs", 8);
+    
+    // Run simulations, probes and peer senders on virtual threads when the runtime has them (Java 21+)
+    public static final boolean VIRTUAL_THREADS = Boolean.parseBoolean(System.getProperty("threads.virtual", "true"));
     
     public static final boolean ENABLE_DEBUG_LOGS = false;
     public static final boolean ENABLE_TIMESTAMP_LOGS = true;
     
+    // Logging: minimum level (DEBUG, INFO, ERROR), whether lines are written by a background thread,
+    // how many lines it may buffer and what to do when the buffer is full ("drop" or "block")
+    public static final String LOG_LEVEL = System.getProperty("log.level", "INFO");
+    public static final boolean ASYNC_LOGGING = Boolean.parseBoolean(System.getProperty("log.async", "true"));
+    public static final int LOG_BUFFER_SIZE = Integer.getInteger("log.buffer", 8192);
+    public static final String LOG_FULL_POLICY = System.getProperty("log.policy", "drop");
+    private static final List<String> LOG_LEVELS = List.of("DEBUG", "INFO", "ERROR");
+    private static final List<String> LOG_FULL_POLICIES = List.of("drop", "block");
+    
+    // Optional directory for per-node log files (node<id>.log, app.log); console output can be turned off
+    public static final String LOG_DIR = System.getProperty("log.dir");
+    public static final boolean LOG_TO_CONSOLE = Boolean.parseBoolean(System.getProperty("log.console", "true"));
+    
+    // Binary event trace (see TraceRecorder): each node keeps its last TRACE_EVENTS (a power of two) protocol events in a
+    // memory-mapped ring file <trace.dir>/node<id>.trace, merged offline by TraceAnalyzer. Off unless trace.dir is set.
+    public static final String TRACE_DIR = System.getProperty("trace.dir");
+    public static final int TRACE_EVENTS = Integer.getInteger("trace.events", 1 << 18);
+    
+    // Metrics: HTTP port serving /metrics (0 = off) and a JSON file rewritten every METRICS_INTERVAL_MS (unset = off)
+    public static final int METRICS_PORT = Integer.getInteger("metrics.port", 0);
+    public static final String METRICS_FILE = System.getProperty("metrics.file");
+    public static final long METRICS_INTERVAL_MS = Long.getLong("metrics.interval.ms", 10000);
+    
+    // Called at startup: a misspelt algorithm, transport or log setting must not quietly run the default
+    public static void validate() {
+        requireOneOf("algorithm", ALGORITHM, ALGORITHMS);
+        requireOneOf("transport", TRANSPORT, TRANSPORTS);
+        requireOneOf("log.level", LOG_LEVEL.trim().toUpperCase(Locale.ROOT), LOG_LEVELS);
+        requireOneOf("log.policy", LOG_FULL_POLICY.toLowerCase(Locale.ROOT), LOG_FULL_POLICIES);
+    }
+    
+    private static void requireOneOf(String property, String value, List<String> allowed) {
+        if (!allowed.contains(value)) {
+            throw new IllegalArgumentException("Unknown " + property + " '" + value + "', expected " + String.join(", ", allowed));
+        }
+    }
+    
     public static boolean isValidNodeCount(int nodeCount) {
-        return nodeCount >= MIN_NODES && nodeCount <= MAX_NODES;
+        return nodeCount >= MIN_NODES && nodeCount <= getMaxNodes();
+    }
+    
+    public static int getMaxNodes() {
+        return isLocalTransport() ? MAX_LOCAL_NODES : MAX_NODES;
+    }
+    
+    public static boolean isNioTransport() {
+        return "nio".equals(TRANSPORT);
+    }
+    
+    public static boolean isLocalTransport() {
+        return "local".equals(TRANSPORT);
+    }
+    
+    // Only multi-machine mode runs it: nodes in one process, over any transport, cannot fail independently
+    public static boolean isFailureDetectionEnabled() {
+        return PHI_THRESHOLD > 0;
+    }
+    
+    public static boolean isPermissionReuseEnabled() {
+        return "roucairol-carvalho".equals(ALGORITHM);
     }
     
-    public static int getRandomRequestDelay() {
-        return MIN_REQUEST_DELAY + (int) (Math.random() * (MAX_REQUEST_DELAY - MIN_REQUEST_DELAY));
+    public static boolean isMaekawaEnabled() {
+        return "maekawa".equals(ALGORITHM);
     }
     
-    public static int getRandomWorkTime() {
-        return MIN_CS_WORK_TIME + (int) (Math.random() * (MAX_CS_WORK_TIME - MIN_CS_WORK_TIME));
+    public static boolean isSuzukiKasamiEnabled() {
+        return "suzuki-kasami".equals(ALGORITHM);
     }
     
     private static String resolveLocalHost() {
@@ -0,0 +1,59 @@
+import java.util.Arrays;
+
+/**
+ * Requests whose reply has been deferred, indexed by peer slot (see NodeIndex).
+ * Slots live in a NodeBitSet and the deferred request timestamps in a parallel long[],
+ * so recording, removing and draining entries allocates nothing. Guarded by the node lock.
+ */
+public class DeferredReplies {
+
+    private final NodeBitSet ids;
+    private long[] timestamps;
+
+    public DeferredReplies() {
+        this(64);
+    }
+
+    public DeferredReplies(int expectedSlots) {
+        this.ids = new NodeBitSet(expectedSlots);
+        this.timestamps = new long[Math.max(1, expectedSlots + 1)];
+    }
+
+    public void put(int id, long timestamp) {
+        ids.add(id);
+        if (id >= timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, Math.max(timestamps.length * 2, id + 1));
+        }
+        timestamps[id] = timestamp;
+    }
+
+    public boolean remove(int id) {
+        return ids.remove(id);
+    }
+
+    public boolean contains(int id) {
+        return ids.contains(id);
+    }
+
+    // Timestamp of the deferred request in slot id; only meaningful while contains(id)
+    public long timestamp(int id) {
+        return timestamps[id];
+    }
+
+    // Smallest deferred slot >= from, or -1; iterate with nextId(0), nextId(id + 1), ...
+    public int nextId(int from) {
+        return ids.nextId(from);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public boolean isEmpty() {
+        return ids.isEmpty();
+    }
+
+    public void clear() {
+        ids.clear();
+    }
+}
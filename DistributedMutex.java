@@ -0,0 +1,88 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * java.util.concurrent.locks.Lock view of a node's distributed critical section, so application code
+ * can run under it directly. The thread that acquired the lock owns it and is the only one allowed to unlock.
+ * A timed-out or interrupted acquisition is cancelled: peers are told to drop the request.
+ * Threads of the same process queue in arrival order and may be handed the section by the previous holder.
+ * A shared mutex (NodeImpl.getSharedMutex()) is the read side: nodes holding it shared exclude writers only.
+ */
+public class DistributedMutex implements Lock {
+
+    // Pause before retrying an acquisition that failed outright, e.g. because a peer was unreachable
+    private static final long RETRY_DELAY_MS = 100;
+
+    private final NodeImpl node;
+    private final boolean shared;
+    private volatile Thread owner;
+
+    public DistributedMutex(NodeImpl node, boolean shared) {
+        this.node = node;
+        this.shared = shared;
+    }
+
+    @Override
+    public void lock() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                lockInterruptibly();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        while (!node.acquire(Long.MAX_VALUE, shared)) {
+            Thread.sleep(RETRY_DELAY_MS);
+        }
+        owner = Thread.currentThread();
+    }
+
+    // Succeeds only if no peer has to be asked (every permission is already held, or the token is here);
+    // otherwise returns false before anything is sent
+    @Override
+    public boolean tryLock() {
+        try {
+            return tryLock(0, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (!node.acquire(Math.max(0, unit.toNanos(time)), shared)) {
+            return false;
+        }
+        owner = Thread.currentThread();
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        if (owner != Thread.currentThread()) {
+            throw new IllegalMonitorStateException("Distributed lock of Node " + node.getNodeId() + " is not held by this thread");
+        }
+        owner = null;
+        node.releaseCriticalSection();
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException("Conditions are not supported by a distributed lock");
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return owner == Thread.currentThread();
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * Mutual exclusion algorithm that NodeImpl runs instead of its built-in Ricart-Agrawala rounds, selected
+ * with -Dalgorithm. NodeImpl keeps everything around the rounds: the state machine, local waiters and
+ * handoff, timeouts, metrics and tracing. The engine decides when the node may enter and what is sent on
+ * the way in and out. Every method runs with the node lock held; messages may only be queued on peer
+ * channels, never sent inline.
+ */
+interface ExclusionEngine {
+
+    // Start collecting permission for the request with this timestamp
+    void begin(long timestamp);
+
+    // The current request may enter the critical section
+    boolean isGranted();
+
+    // A request begun now would be granted at once, without sending anything
+    boolean canEnterAlone();
+
+    // The node left the critical section, or abandoned its request: give back whatever it holds
+    void release();
+
+    // Another node is known to be waiting, so the section should not be handed on locally for long
+    boolean hasWaitingPeers();
+
+    // The failure detector suspects the peer, or no longer does
+    void peerSuspected(int peerId);
+
+    void peerRecovered(int peerId);
+
+    // The peer left the cluster; nothing more will come from it
+    void peerLeft(int peerId);
+}
@@ -0,0 +1,191 @@
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Phi-accrual failure detector over Node.isAlive() heartbeats. Each peer is probed every interval,
+ * next to its outbound channel rather than through it, so a backlog of protocol messages is not taken
+ * for silence; from the recent inter-arrival times of the answers the detector computes phi, the
+ * confidence that the peer is down, and reports a peer as suspected once phi reaches the threshold
+ * and as recovered when it drops below again.
+ */
+public class FailureDetector {
+
+    public interface Listener {
+        void suspected(int peerId, double phi);
+
+        void recovered(int peerId);
+
+        // Peers may have suspected this process while it was paused
+        void paused(long pauseMs);
+    }
+
+    // Inter-arrival times remembered per peer
+    private static final int WINDOW_SIZE = 100;
+
+    // Lower bound on the deviation, so a perfectly regular peer is not suspected after one late heartbeat
+    private static final double MIN_STD_DEVIATION_MS = 250;
+
+    // A tick this many intervals after the previous one means this process was paused, not its peers
+    private static final int PAUSE_INTERVALS = 3;
+
+    // Detectors of all nodes share one thread; a tick only sends probes and does arithmetic
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "failure-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int nodeId;
+    private final PeerTable peers;
+    private final Listener listener;
+    private final long intervalMs;
+    private final double threshold;
+    private final Map<Integer, History> histories;
+    private ScheduledFuture<?> task;
+    private long lastTick;
+
+    public FailureDetector(int nodeId, PeerTable peers, Listener listener, long intervalMs, double threshold) {
+        this.nodeId = nodeId;
+        this.peers = peers;
+        this.listener = listener;
+        this.intervalMs = intervalMs;
+        this.threshold = threshold;
+        this.histories = new ConcurrentHashMap<>();
+    }
+
+    public void start() {
+        task = SCHEDULER.scheduleAtFixedRate(this::tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = now();
+            histories.keySet().retainAll(peers.ids());
+
+            // After a pause of our own (GC, an overloaded host, SIGSTOP) every peer would look silent at once, and
+            // suspecting them all would let this node enter alone: their silence is counted from now instead
+            if (lastTick != 0 && now - lastTick > PAUSE_INTERVALS * intervalMs) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failure detector paused for " + (now - lastTick) + " ms, restarting heartbeat clocks");
+                for (History history : histories.values()) {
+                    history.restart(now);
+                }
+                listener.paused(now - lastTick);
+            }
+            lastTick = now;
+
+            for (PeerChannel channel : peers.snapshot()) {
+                int peerId = channel.getPeerId();
+                History history = histories.computeIfAbsent(peerId, id -> new History(now, intervalMs));
+
+                // One probe at a time: a peer that does not answer simply stops producing heartbeats
+                if (history.probing.compareAndSet(false, true)) {
+                    Node peer = channel.getPeer();
+                    Threads.executor().execute(() -> probe(peer, history));
+                }
+
+                history.absorbHeartbeat();
+                double phi = history.phi(now);
+                if (!history.suspected && phi >= threshold) {
+                    history.suspected = true;
+                    listener.suspected(peerId, phi);
+                } else if (history.suspected && phi < threshold) {
+                    history.suspected = false;
+                    listener.recovered(peerId);
+                }
+            }
+        } catch (Exception e) {
+            Logger.logNode(nodeId, Logger.Level.ERROR, "Failure detector error: " + e.getMessage());
+        }
+    }
+
+    // Runs on its own thread: the call blocks for the round trip, up to the transport's timeout
+    private static void probe(Node peer, History history) {
+        try {
+            if (peer.isAlive()) {
+                history.lastHeartbeat = now();
+            }
+        } catch (RemoteException e) {
+            // No heartbeat this time
+        } finally {
+            history.probing.set(false);
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    // Heartbeat history of one peer. lastHeartbeat is written by probe completions; everything else
+    // belongs to the scheduler thread.
+    private static class History {
+
+        private final AtomicBoolean probing = new AtomicBoolean(false);
+        private volatile long lastHeartbeat;
+        private long processedHeartbeat;
+        private boolean suspected;
+
+        private final long[] intervals = new long[WINDOW_SIZE];
+        private int count;
+        private int next;
+        private double sum;
+        private double sumOfSquares;
+
+        // Start as if the peer had just answered, with one expected interval on record
+        private History(long now, long expectedIntervalMs) {
+            this.lastHeartbeat = now;
+            this.processedHeartbeat = now;
+            addInterval(expectedIntervalMs);
+        }
+
+        private void restart(long now) {
+            processedHeartbeat = Math.max(processedHeartbeat, now);
+        }
+
+        private void absorbHeartbeat() {
+            long heartbeat = lastHeartbeat;
+            if (heartbeat > processedHeartbeat) {
+                addInterval(heartbeat - processedHeartbeat);
+                processedHeartbeat = heartbeat;
+            }
+        }
+
+        private void addInterval(long interval) {
+            if (count == WINDOW_SIZE) {
+                long evicted = intervals[next];
+                sum -= evicted;
+                sumOfSquares -= (double) evicted * evicted;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW_SIZE;
+            sum += interval;
+            sumOfSquares += (double) interval * interval;
+        }
+
+        // -log10 of the probability that a heartbeat arrives even later than now, with inter-arrival
+        // times taken as normally distributed (logistic approximation of the normal CDF)
+        private double phi(long now) {
+            double mean = sum / count;
+            double variance = Math.max(0, sumOfSquares / count - mean * mean);
+            double deviation = Math.max(Math.sqrt(variance), MIN_STD_DEVIATION_MS);
+
+            double y = (now - processedHeartbeat - mean) / deviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            double later = y > 0 ? e / (1.0 + e) : 1.0 - 1.0 / (1.0 + e);
+            return later <= 0 ? Double.MAX_VALUE : -Math.log10(later);
+        }
+    }
+}
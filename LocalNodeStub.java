@@ -0,0 +1,112 @@
+import java.rmi.RemoteException;
+
+/**
+ * Client side of LocalTransport: a Node that queues each call in the target node's inbox.
+ * Like the NIO stub it answers a request at once; the grant arrives later as a separate reply.
+ */
+public class LocalNodeStub implements Node, ResourceNode, QuorumNode, TokenNode {
+
+    private final LocalTransport transport;
+
+    LocalNodeStub(LocalTransport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public boolean request(int requesterId, long timestamp) throws RemoteException {
+        transport.enqueue(node -> node.request(requesterId, timestamp));
+        return true;
+    }
+
+    @Override
+    public boolean requestShared(int requesterId, long timestamp) throws RemoteException {
+        transport.enqueue(node -> node.requestShared(requesterId, timestamp));
+        return true;
+    }
+
+    @Override
+    public void reply(int replierId, int requesterId, long requestTimestamp) throws RemoteException {
+        transport.enqueue(node -> node.reply(replierId, requesterId, requestTimestamp));
+    }
+
+    @Override
+    public void release(int releaserId) throws RemoteException {
+        transport.enqueue(node -> node.release(releaserId));
+    }
+
+    @Override
+    public void requestResource(String resource, int requesterId, long timestamp) throws RemoteException {
+        transport.enqueue(node -> node.requestResource(resource, requesterId, timestamp));
+    }
+
+    @Override
+    public void replyResource(String resource, int replierId, int requesterId, long requestTimestamp) throws RemoteException {
+        transport.enqueue(node -> node.replyResource(resource, replierId, requesterId, requestTimestamp));
+    }
+
+    @Override
+    public void releaseResource(String resource, int releaserId) throws RemoteException {
+        transport.enqueue(node -> node.releaseResource(resource, releaserId));
+    }
+
+    @Override
+    public void quorumRequest(int requesterId, long timestamp) throws RemoteException {
+        transport.enqueue(node -> node.quorumRequest(requesterId, timestamp));
+    }
+
+    @Override
+    public void grant(int voterId, long requestTimestamp) throws RemoteException {
+        transport.enqueue(node -> node.grant(voterId, requestTimestamp));
+    }
+
+    @Override
+    public void inquire(int voterId, long requestTimestamp) throws RemoteException {
+        transport.enqueue(node -> node.inquire(voterId, requestTimestamp));
+    }
+
+    @Override
+    public void relinquish(int requesterId, long requestTimestamp) throws RemoteException {
+        transport.enqueue(node -> node.relinquish(requesterId, requestTimestamp));
+    }
+
+    @Override
+    public void failed(int voterId, long requestTimestamp) throws RemoteException {
+        transport.enqueue(node -> node.failed(voterId, requestTimestamp));
+    }
+
+    @Override
+    public void quorumRelease(int requesterId, long requestTimestamp) throws RemoteException {
+        transport.enqueue(node -> node.quorumRelease(requesterId, requestTimestamp));
+    }
+
+    @Override
+    public void tokenRequest(int requesterId, long sequence) throws RemoteException {
+        transport.enqueue(node -> node.tokenRequest(requesterId, sequence));
+    }
+
+    // The sender lets go of the token, so it is handed over as is
+    @Override
+    public void token(int senderId, Token token) throws RemoteException {
+        transport.enqueue(node -> node.token(senderId, token));
+    }
+
+    @Override
+    public void tokenProbe(int proberId, long generation) throws RemoteException {
+        transport.enqueue(node -> node.tokenProbe(proberId, generation));
+    }
+
+    @Override
+    public void tokenProbeReply(int voterId, long generation, long served) throws RemoteException {
+        transport.enqueue(node -> node.tokenProbeReply(voterId, generation, served));
+    }
+
+    @Override
+    public int getNodeId() {
+        return transport.getNodeId();
+    }
+
+    @Override
+    public boolean isAlive() {
+        return !transport.isClosed();
+    }
+}
@@ -0,0 +1,101 @@
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process transport for running many nodes in one JVM without RMI or sockets.
+ * Messages for a node are handed off through a lock-free inbox and handled one at a time,
+ * in arrival order, by a small pool shared by all nodes; senders never run the receiver's handlers.
+ */
+public class LocalTransport {
+
+    @FunctionalInterface
+    interface Delivery {
+        void deliver(NodeImpl node) throws RemoteException;
+    }
+
+    // Messages handled per turn before the worker moves on, so one busy node cannot starve the others
+    private static final int BATCH_SIZE = 64;
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    // Handlers only take the node lock briefly and enqueue, so one worker per core is enough for any number of nodes
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "local-transport-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private final NodeImpl local;
+    private final int nodeId;
+    private final ConcurrentLinkedQueue<Delivery> inbox;
+    private final AtomicBoolean scheduled;
+    private final LocalNodeStub stub;
+    private volatile boolean closed;
+
+    private LocalTransport(NodeImpl local, int nodeId) {
+        this.local = local;
+        this.nodeId = nodeId;
+        this.inbox = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean(false);
+        this.stub = new LocalNodeStub(this);
+    }
+
+    public static LocalTransport start(NodeImpl local, int nodeId) {
+        return new LocalTransport(local, nodeId);
+    }
+
+    // Handle that peers in the same process use to reach this node
+    public LocalNodeStub getStub() {
+        return stub;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Messages still queued are dropped, as they would be on a closed connection
+    public void close() {
+        closed = true;
+        inbox.clear();
+    }
+
+    void enqueue(Delivery delivery) throws RemoteException {
+        if (closed) {
+            throw new ConnectException("Node " + nodeId + " is not running");
+        }
+        inbox.add(delivery);
+        if (scheduled.compareAndSet(false, true)) {
+            WORKERS.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        for (int handled = 0; handled < BATCH_SIZE && !closed; handled++) {
+            Delivery delivery = inbox.poll();
+            if (delivery == null) {
+                break;
+            }
+            try {
+                delivery.deliver(local);
+            } catch (Exception e) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to handle local message: " + e.getMessage());
+            }
+        }
+
+        scheduled.set(false);
+        // More work, or a message added after the last poll but before the flag was cleared
+        if (!inbox.isEmpty() && !closed && scheduled.compareAndSet(false, true)) {
+            WORKERS.execute(this::drain);
+        }
+    }
+}
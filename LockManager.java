@@ -0,0 +1,317 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Ricart-Agrawala over many named resources shared by the same set of nodes.
+ * Every resource has its own state and lock, created on first use and evicted as soon as it is idle,
+ * so contention on one resource never blocks another and memory follows the number of active resources.
+ */
+public class LockManager {
+
+    private enum State {
+        REQUESTING,
+        HELD,
+        RELEASED
+    }
+
+    private final int nodeId;
+    private final PeerTable peers;
+    private final AtomicLong logicalClock;
+    private final Map<String, ResourceLock> resources;
+    
+    // Peers the node's failure detector suspects; requests neither ask nor wait for them
+    private final Set<Integer> suspected;
+
+    public LockManager(int nodeId, PeerTable peers) {
+        this.nodeId = nodeId;
+        this.peers = peers;
+        this.logicalClock = new AtomicLong(0);
+        this.resources = new ConcurrentHashMap<>();
+        this.suspected = ConcurrentHashMap.newKeySet();
+    }
+
+    // Acquire resource for this node, waiting at most timeoutMs; returns false on timeout
+    public boolean acquire(String resource, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        ResourceLock entry = lockEntry(resource);
+        entry.localWaiters++;
+        boolean requesting = false;
+        try {
+            // Only one local owner per resource at a time; others wait for it to go back to RELEASED
+            while (entry.state != State.RELEASED) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                entry.changed.awaitNanos(remaining);
+            }
+
+            entry.state = State.REQUESTING;
+            requesting = true;
+            entry.requestTimestamp = logicalClock.incrementAndGet();
+            entry.pendingReplies.clear();
+
+            List<PeerChannel> targets = new ArrayList<>();
+            for (PeerChannel channel : peers.snapshot()) {
+                if (!suspected.contains(channel.getPeerId())) {
+                    targets.add(channel);
+                    entry.pendingReplies.add(channel.getPeerId());
+                }
+            }
+            long timestamp = entry.requestTimestamp;
+            for (PeerChannel channel : targets) {
+                send(channel, resource, node -> ((ResourceNode) node).requestResource(resource, nodeId, timestamp));
+            }
+
+            while (!entry.pendingReplies.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    if (Logger.isEnabled(Logger.Level.ERROR)) {
+                        Logger.logNode(nodeId, Logger.Level.ERROR, "Timeout acquiring resource " + resource);
+                    }
+                    cancel(entry);
+                    return false;
+                }
+                entry.changed.awaitNanos(remaining);
+            }
+
+            entry.state = State.HELD;
+            return true;
+        } catch (InterruptedException e) {
+            if (requesting && entry.state == State.REQUESTING) {
+                cancel(entry);
+            }
+            throw e;
+        } finally {
+            entry.localWaiters--;
+            unlockEntry(entry);
+        }
+    }
+
+    public void release(String resource) {
+        ResourceLock entry = resources.get(resource);
+        if (entry == null) {
+            throw new IllegalStateException("Resource " + resource + " is not held by Node " + nodeId);
+        }
+
+        entry.lock.lock();
+        try {
+            if (entry.state != State.HELD) {
+                throw new IllegalStateException("Resource " + resource + " is not held by Node " + nodeId);
+            }
+            exit(entry);
+        } finally {
+            unlockEntry(entry);
+        }
+    }
+
+    void handleRequest(String resource, int requesterId, long timestamp) {
+        logicalClock.accumulateAndGet(timestamp, (current, received) -> Math.max(current, received) + 1);
+
+        ResourceLock entry = lockEntry(resource);
+        try {
+            if (shouldGrant(entry, requesterId, timestamp)) {
+                PeerChannel channel = peers.get(requesterId);
+                if (channel != null) {
+                    send(channel, resource, node -> ((ResourceNode) node).replyResource(resource, nodeId, requesterId, timestamp));
+                }
+            } else {
+                entry.deferred.put(requesterId, timestamp);
+            }
+        } finally {
+            unlockEntry(entry);
+        }
+    }
+
+    void handleReply(String resource, int replierId, long requestTimestamp) {
+        // Replies never create state: without a live entry there is no request they could belong to
+        ResourceLock entry = resources.get(resource);
+        if (entry == null) {
+            return;
+        }
+
+        entry.lock.lock();
+        try {
+            // A late reply to an abandoned request carries the old timestamp and is ignored
+            if (entry.state == State.REQUESTING && entry.requestTimestamp == requestTimestamp
+                    && entry.pendingReplies.remove(replierId) && entry.pendingReplies.isEmpty()) {
+                entry.changed.signalAll();
+            }
+        } finally {
+            unlockEntry(entry);
+        }
+    }
+
+    void handleRelease(String resource, int releaserId) {
+        ResourceLock entry = resources.get(resource);
+        if (entry == null) {
+            return;
+        }
+        
+        entry.lock.lock();
+        try {
+            entry.deferred.remove(releaserId);
+        } finally {
+            unlockEntry(entry);
+        }
+    }
+    
+    // Membership and failure detector events, passed on by NodeImpl for every resource in use
+
+    // The peer left: requests stop waiting for it, and replies deferred for it are dropped
+    void peerLeft(int peerId) {
+        suspected.remove(peerId);
+        forEachResource(entry -> {
+            entry.deferred.remove(peerId);
+            stopWaitingFor(entry, peerId);
+        });
+    }
+
+    // Requests stop waiting for a suspected peer. A reply deferred for it is still sent on exit, in case it is alive.
+    void peerSuspected(int peerId) {
+        suspected.add(peerId);
+        forEachResource(entry -> stopWaitingFor(entry, peerId));
+    }
+
+    // A request made while the peer was suspected never asked it, so it is asked now and waited for again
+    void peerRecovered(int peerId) {
+        if (!suspected.remove(peerId)) {
+            return;
+        }
+        PeerChannel channel = peers.get(peerId);
+        if (channel == null) {
+            return;
+        }
+        forEachResource(entry -> {
+            if (entry.state == State.REQUESTING && entry.pendingReplies.add(peerId)) {
+                long timestamp = entry.requestTimestamp;
+                send(channel, entry.name, node -> ((ResourceNode) node).requestResource(entry.name, nodeId, timestamp));
+            }
+        });
+    }
+
+    private void stopWaitingFor(ResourceLock entry, int peerId) {
+        if (entry.state == State.REQUESTING && entry.pendingReplies.remove(peerId) && entry.pendingReplies.isEmpty()) {
+            entry.changed.signalAll();
+        }
+    }
+
+    // Run action on every live resource with its lock held
+    private void forEachResource(Consumer<ResourceLock> action) {
+        for (ResourceLock entry : resources.values()) {
+            entry.lock.lock();
+            try {
+                if (!entry.evicted) {
+                    action.accept(entry);
+                }
+            } finally {
+                unlockEntry(entry);
+            }
+        }
+    }
+
+    // Number of resources currently tracked; idle ones are not counted because they are evicted
+    public int getActiveResourceCount() {
+        return resources.size();
+    }
+
+    // Same ordering rules as NodeImpl.shouldGrantPermission, applied to one resource
+    private boolean shouldGrant(ResourceLock entry, int requesterId, long timestamp) {
+        if (entry.state == State.RELEASED) {
+            return true;
+        }
+        if (entry.state == State.HELD) {
+            return false;
+        }
+        return timestamp < entry.requestTimestamp
+            || (timestamp == entry.requestTimestamp && requesterId < nodeId);
+    }
+
+    // Abandon a request: peers that have not replied yet drop it instead of answering later
+    private void cancel(ResourceLock entry) {
+        for (int peerId : entry.pendingReplies) {
+            PeerChannel channel = peers.get(peerId);
+            if (channel != null) {
+                send(channel, entry.name, node -> ((ResourceNode) node).releaseResource(entry.name, nodeId));
+            }
+        }
+        exit(entry);
+    }
+    
+    // Leave the resource and send the replies deferred meanwhile
+    private void exit(ResourceLock entry) {
+        entry.state = State.RELEASED;
+        entry.pendingReplies.clear();
+        for (Map.Entry<Integer, Long> deferred : entry.deferred.entrySet()) {
+            int deferredId = deferred.getKey();
+            long timestamp = deferred.getValue();
+            PeerChannel channel = peers.get(deferredId);
+            if (channel != null) {
+                send(channel, entry.name, node -> ((ResourceNode) node).replyResource(entry.name, nodeId, deferredId, timestamp));
+            }
+        }
+        entry.deferred.clear();
+        entry.changed.signalAll();
+    }
+
+    private void send(PeerChannel channel, String resource, PeerChannel.Message message) {
+        channel.send(message).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send " + resource + " message to Node "
+                    + channel.getPeerId() + ": " + failure.getMessage());
+            }
+        });
+    }
+
+    // Return the live entry for resource with its lock held, creating it if needed
+    private ResourceLock lockEntry(String resource) {
+        while (true) {
+            ResourceLock entry = resources.computeIfAbsent(resource, ResourceLock::new);
+            entry.lock.lock();
+            if (!entry.evicted) {
+                return entry;
+            }
+            // Lost a race with eviction; the map no longer holds this entry
+            entry.lock.unlock();
+        }
+    }
+
+    private void unlockEntry(ResourceLock entry) {
+        if (entry.isIdle()) {
+            entry.evicted = true;
+            resources.remove(entry.name, entry);
+        }
+        entry.lock.unlock();
+    }
+
+    private static class ResourceLock {
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final Set<Integer> pendingReplies = new HashSet<>();
+        private final Map<Integer, Long> deferred = new HashMap<>();
+
+        private State state = State.RELEASED;
+        private long requestTimestamp;
+        private int localWaiters;
+        private boolean evicted;
+
+        private ResourceLock(String name) {
+            this.name = name;
+        }
+
+        private boolean isIdle() {
+            return state == State.RELEASED && deferred.isEmpty() && localWaiters == 0;
+        }
+    }
+}
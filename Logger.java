@@ -1,40 +1,317 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Logging utility. Lines are handed to a bounded ring buffer and formatted and written by a
+ * background thread, so callers (often holding a node lock) never wait on console or file I/O.
+ * When the buffer is full a line is dropped and counted, or the caller waits, depending on Config.LOG_FULL_POLICY.
+ */
 public class Logger {
-    
-    private static final DateTimeFormatter TIMESTAMP_FORMAT = 
-        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
-    
+
+    private static final DateTimeFormatter SECOND_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.");
+
+    private static final int NO_NODE = -1;
+
     public enum Level {
         INFO, DEBUG, ERROR
     }
-    
+
+    private static final Level THRESHOLD = parseLevel(Config.LOG_LEVEL);
+    private static final boolean BLOCK_WHEN_FULL = "block".equalsIgnoreCase(Config.LOG_FULL_POLICY);
+
+    // Ring buffer slots, guarded by BUFFER_LOCK
+    private static final int CAPACITY = Math.max(16, Config.LOG_BUFFER_SIZE);
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] nodeIds = new int[CAPACITY];
+    private static final Level[] levels = new Level[CAPACITY];
+    private static final String[] messages = new String[CAPACITY];
+    private static int head;
+    private static int count;
+    private static long enqueued;
+    private static long written;
+
+    private static final ReentrantLock BUFFER_LOCK = new ReentrantLock();
+    private static final Condition notEmpty = BUFFER_LOCK.newCondition();
+    private static final Condition notFull = BUFFER_LOCK.newCondition();
+    private static final Condition drained = BUFFER_LOCK.newCondition();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    // Used by the writer thread, or by callers once logging has gone synchronous
+    private static final ReentrantLock WRITE_LOCK = new ReentrantLock();
+    private static final Map<Integer, Writer> fileSinks = new HashMap<>();
+    private static final StringBuilder line = new StringBuilder(256);
+    private static final StringBuilder console = new StringBuilder(8192);
+    private static long cachedSecond = -1;
+    private static String cachedPrefix = "";
+    private static long reportedDrops;
+
+    private static volatile boolean synchronous = !Config.ASYNC_LOGGING;
+
+    static {
+        if (!synchronous) {
+            Thread writer = new Thread(Logger::drainLoop, "logger");
+            writer.setDaemon(true);
+            writer.start();
+
+            // Write out whatever is still buffered on exit; anything logged afterwards is written directly
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                flush();
+                synchronous = true;
+            }, "logger-shutdown"));
+        }
+    }
+
     public static void info(String message) {
         log(Level.INFO, message);
     }
-    
+
     public static void debug(String message) {
-        if (Config.ENABLE_DEBUG_LOGS) {
+        if (isEnabled(Level.DEBUG)) {
             log(Level.DEBUG, message);
         }
     }
-    
+
     public static void error(String message) {
         log(Level.ERROR, message);
     }
-    
+
+    // Check before building an expensive message on a hot path
+    public static boolean isEnabled(Level level) {
+        if (level == Level.DEBUG && Config.ENABLE_DEBUG_LOGS) {
+            return true;
+        }
+        return severity(level) >= severity(THRESHOLD);
+    }
+
     public static void log(Level level, String message) {
-        String timestamp = Config.ENABLE_TIMESTAMP_LOGS ? 
-            LocalDateTime.now().format(TIMESTAMP_FORMAT) + " " : "";
-        
-        System.out.println(timestamp + "[" + level + "] " + message);
+        append(NO_NODE, level, message);
     }
-    
+
     public static void logNode(int nodeId, Level level, String message) {
-        String timestamp = Config.ENABLE_TIMESTAMP_LOGS ? 
-            LocalDateTime.now().format(TIMESTAMP_FORMAT) + " " : "";
-        
-        System.out.println(timestamp + "[Node" + nodeId + "][" + level + "] " + message);
+        append(nodeId, level, message);
+    }
+
+    // Block until every line accepted so far has been written
+    public static void flush() {
+        if (synchronous) {
+            return;
+        }
+        BUFFER_LOCK.lock();
+        try {
+            long target = enqueued;
+            while (written < target) {
+                drained.awaitUninterruptibly();
+            }
+        } finally {
+            BUFFER_LOCK.unlock();
+        }
+    }
+
+    // Lines discarded because the buffer was full
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private static void append(int nodeId, Level level, String message) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+
+        if (synchronous) {
+            WRITE_LOCK.lock();
+            try {
+                write(now, nodeId, level, message);
+                flushSinks();
+            } finally {
+                WRITE_LOCK.unlock();
+            }
+            return;
+        }
+
+        BUFFER_LOCK.lock();
+        try {
+            while (count == CAPACITY) {
+                if (!BLOCK_WHEN_FULL) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                notFull.awaitUninterruptibly();
+            }
+
+            int tail = (head + count) % CAPACITY;
+            times[tail] = now;
+            nodeIds[tail] = nodeId;
+            levels[tail] = level;
+            messages[tail] = message;
+            count++;
+            enqueued++;
+            if (count == 1) {
+                notEmpty.signal();
+            }
+        } finally {
+            BUFFER_LOCK.unlock();
+        }
+    }
+
+    private static void drainLoop() {
+        long[] batchTimes = new long[CAPACITY];
+        int[] batchNodes = new int[CAPACITY];
+        Level[] batchLevels = new Level[CAPACITY];
+        String[] batchMessages = new String[CAPACITY];
+
+        while (true) {
+            int batch;
+            BUFFER_LOCK.lock();
+            try {
+                while (count == 0) {
+                    notEmpty.awaitUninterruptibly();
+                }
+
+                // Take everything in one go so producers wait on the lock as briefly as possible
+                batch = count;
+                for (int i = 0; i < batch; i++) {
+                    int slot = (head + i) % CAPACITY;
+                    batchTimes[i] = times[slot];
+                    batchNodes[i] = nodeIds[slot];
+                    batchLevels[i] = levels[slot];
+                    batchMessages[i] = messages[slot];
+                    messages[slot] = null;
+                }
+                head = (head + batch) % CAPACITY;
+                count = 0;
+                notFull.signalAll();
+            } finally {
+                BUFFER_LOCK.unlock();
+            }
+
+            WRITE_LOCK.lock();
+            try {
+                for (int i = 0; i < batch; i++) {
+                    write(batchTimes[i], batchNodes[i], batchLevels[i], batchMessages[i]);
+                    batchMessages[i] = null;
+                }
+                reportDrops();
+                flushSinks();
+            } finally {
+                WRITE_LOCK.unlock();
+            }
+
+            BUFFER_LOCK.lock();
+            try {
+                written += batch;
+                drained.signalAll();
+            } finally {
+                BUFFER_LOCK.unlock();
+            }
+        }
+    }
+
+    // Format one line into the console batch and its file sink (WRITE_LOCK held)
+    private static void write(long time, int nodeId, Level level, String message) {
+        line.setLength(0);
+        if (Config.ENABLE_TIMESTAMP_LOGS) {
+            appendTimestamp(time);
+            line.append(' ');
+        }
+        if (nodeId != NO_NODE) {
+            line.append("[Node").append(nodeId).append(']');
+        }
+        line.append('[').append(level).append("] ").append(message).append('\n');
+
+        if (Config.LOG_TO_CONSOLE) {
+            console.append(line);
+        }
+        if (Config.LOG_DIR != null) {
+            try {
+                fileSink(nodeId).append(line);
+            } catch (IOException e) {
+                console.append("[ERROR] Failed to write log file: ").append(e.getMessage()).append('\n');
+            }
+        }
+    }
+
+    // The date and time down to the second only change once per second, so they are formatted once per second
+    private static void appendTimestamp(long time) {
+        long second = time / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedPrefix = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault()).format(SECOND_FORMAT);
+        }
+        int millis = (int) (time % 1000);
+        line.append(cachedPrefix);
+        if (millis < 100) {
+            line.append('0');
+        }
+        if (millis < 10) {
+            line.append('0');
+        }
+        line.append(millis);
+    }
+
+    private static Writer fileSink(int nodeId) throws IOException {
+        Writer sink = fileSinks.get(nodeId);
+        if (sink == null) {
+            File directory = new File(Config.LOG_DIR);
+            directory.mkdirs();
+            String name = nodeId == NO_NODE ? "app.log" : "node" + nodeId + ".log";
+            sink = new FileWriter(new File(directory, name), true);
+            fileSinks.put(nodeId, sink);
+        }
+        return sink;
+    }
+
+    private static void reportDrops() {
+        long total = dropped.get();
+        if (total > reportedDrops) {
+            console.append("[Logger] dropped ").append(total - reportedDrops).append(" line(s), buffer full\n");
+            reportedDrops = total;
+        }
+    }
+
+    private static void flushSinks() {
+        if (console.length() > 0) {
+            System.out.print(console);
+            System.out.flush();
+            console.setLength(0);
+        }
+        for (Writer sink : fileSinks.values()) {
+            try {
+                sink.flush();
+            } catch (IOException e) {
+                System.out.println("[ERROR] Failed to flush log file: " + e.getMessage());
+            }
+        }
+    }
+
+    private static int severity(Level level) {
+        switch (level) {
+            case DEBUG:
+                return 0;
+            case INFO:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
     }
 }
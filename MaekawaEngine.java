@@ -0,0 +1,385 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maekawa's quorum algorithm (-Dalgorithm=maekawa). The node ids, sorted, fill a grid of ceil(sqrt(N))
+ * columns row by row, and a node's quorum is its own row and column. Any two quorums share a node, so a
+ * node enters once its whole quorum has voted for it, and an entry costs O(sqrt N) messages instead of 2(N-1).
+ *
+ * Every node is also a voter with a single vote, given to one request at a time in Lamport timestamp
+ * order. A request that arrives while the vote is taken waits in the voter's queue and, unless it is the
+ * oldest one waiting, is told FAILED. If it is older than the request holding the vote, the voter sends
+ * that one's requester an INQUIRE, and a requester that knows it cannot win yet (it got a FAILED, or has
+ * already given a vote back) YIELDs the vote. This breaks the deadlocks of requests holding parts of each
+ * other's quorums.
+ *
+ * Quorums are derived from the membership each node sees when it requests, so every node must see the
+ * same membership: a join or leave during contention can briefly break mutual exclusion. Links must be FIFO,
+ * as every transport here is. A lost RELEASE would keep a vote forever, so a voter whose waiting request is
+ * abandoned after a timeout inquires of the vote holder, which releases again if that request is over.
+ * Suspected peers are not skipped, since the quorum relies on every member.
+ * Not thread-safe: NodeImpl calls everything with its lock held.
+ */
+class MaekawaEngine implements ExclusionEngine {
+
+    private static final int NONE = -1;
+
+    private final int nodeId;
+    private final PeerTable peers;
+    private final QuorumNode self;
+    private final NodeMetrics metrics;
+    private final TraceRecorder trace;
+    private final AtomicLong logicalClock;
+
+    // Requester: the current request, its quorum (sorted ids, this node included) and the votes received
+    private long requestTimestamp;
+    private int[] quorum;
+    private boolean[] voted;
+    private int votes;
+    private boolean failed;
+    private boolean yielded;
+    private final List<Integer> inquirers;
+
+    // Voter: the request holding this node's vote and the ones waiting for it, oldest first
+    private int voteHolder;
+    private long voteTimestamp;
+    private boolean inquired;
+    private final PriorityQueue<Ballot> waiting;
+
+    MaekawaEngine(int nodeId, PeerTable peers, QuorumNode self, NodeMetrics metrics, TraceRecorder trace, AtomicLong logicalClock) {
+        this.nodeId = nodeId;
+        this.peers = peers;
+        this.self = self;
+        this.metrics = metrics;
+        this.trace = trace;
+        this.logicalClock = logicalClock;
+        this.quorum = new int[0];
+        this.voted = new boolean[0];
+        this.inquirers = new ArrayList<>();
+        this.voteHolder = NONE;
+        this.waiting = new PriorityQueue<>();
+    }
+
+    @Override
+    public void begin(long timestamp) {
+        requestTimestamp = timestamp;
+        quorum = quorumOf(nodeId, peerIds());
+        voted = new boolean[quorum.length];
+        votes = 0;
+        failed = false;
+        yielded = false;
+        inquirers.clear();
+        for (int member : quorum) {
+            send(member, NodeMetrics.Message.REQUEST, node -> node.quorumRequest(nodeId, timestamp));
+        }
+    }
+
+    @Override
+    public boolean isGranted() {
+        return requestTimestamp != 0 && votes == quorum.length;
+    }
+
+    // Only a node with no peers is its own quorum
+    @Override
+    public boolean canEnterAlone() {
+        return peers.size() == 0 && voteHolder == NONE;
+    }
+
+    @Override
+    public void release() {
+        long timestamp = requestTimestamp;
+        requestTimestamp = 0;
+        inquirers.clear();
+        for (int member : quorum) {
+            send(member, NodeMetrics.Message.RELEASE, node -> node.quorumRelease(nodeId, timestamp));
+        }
+    }
+
+    @Override
+    public boolean hasWaitingPeers() {
+        return !waiting.isEmpty() || !inquirers.isEmpty();
+    }
+
+    // Every quorum member is needed, suspected or not
+    @Override
+    public void peerSuspected(int peerId) {
+    }
+
+    @Override
+    public void peerRecovered(int peerId) {
+    }
+
+    @Override
+    public void peerLeft(int peerId) {
+        waiting.removeIf(ballot -> ballot.requesterId == peerId);
+        if (voteHolder == peerId) {
+            voteNext();
+        }
+    }
+
+    // Grid quorum of nodeId among members (this node included): its row and its column
+    static int[] quorumOf(int nodeId, int[] members) {
+        int[] sorted = members.clone();
+        Arrays.sort(sorted);
+        int position = Arrays.binarySearch(sorted, nodeId);
+        if (position < 0) {
+            throw new IllegalArgumentException("Node " + nodeId + " is not a member");
+        }
+        int columns = (int) Math.ceil(Math.sqrt(sorted.length));
+        int row = position / columns;
+        int column = position % columns;
+
+        int[] quorum = new int[2 * columns];
+        int size = 0;
+        for (int i = row * columns; i < Math.min(sorted.length, (row + 1) * columns); i++) {
+            quorum[size++] = sorted[i];
+        }
+        for (int i = column; i < sorted.length; i += columns) {
+            if (i / columns != row) {
+                quorum[size++] = sorted[i];
+            }
+        }
+        quorum = Arrays.copyOf(quorum, size);
+        Arrays.sort(quorum);
+        return quorum;
+    }
+
+    // Voter side
+
+    void onRequest(int requesterId, long timestamp) {
+        received(requesterId, NodeMetrics.Message.REQUEST, TraceRecorder.Event.REQUEST_RECEIVED, timestamp);
+        if (voteHolder == NONE) {
+            vote(requesterId, timestamp);
+            return;
+        }
+
+        Ballot ballot = new Ballot(requesterId, timestamp);
+        Ballot oldest = waiting.peek();
+        waiting.add(ballot);
+        if (ballot.isBefore(voteHolder, voteTimestamp) && (oldest == null || ballot.compareTo(oldest) < 0)) {
+            // The new request is the oldest waiting: the one it displaces can no longer win here
+            if (oldest != null && !oldest.failed) {
+                fail(oldest);
+            }
+            if (!inquired) {
+                inquired = true;
+                int holder = voteHolder;
+                long holderTimestamp = voteTimestamp;
+                send(holder, NodeMetrics.Message.INQUIRE, node -> node.inquire(nodeId, holderTimestamp));
+            }
+        } else {
+            fail(ballot);
+        }
+    }
+
+    void onRelinquish(int requesterId, long timestamp) {
+        received(requesterId, NodeMetrics.Message.YIELD, null, timestamp);
+        if (voteHolder != requesterId || voteTimestamp != timestamp) {
+            return;
+        }
+        // The yielding request waits again, knowing it cannot win yet
+        Ballot ballot = new Ballot(requesterId, timestamp);
+        ballot.failed = true;
+        waiting.add(ballot);
+        voteNext();
+    }
+
+    void onRelease(int requesterId, long timestamp) {
+        received(requesterId, NodeMetrics.Message.RELEASE, TraceRecorder.Event.RELEASE_RECEIVED, timestamp);
+        if (voteHolder == requesterId && voteTimestamp == timestamp) {
+            voteNext();
+            return;
+        }
+        // Abandoned before it got the vote, after its requester timed out waiting
+        boolean abandoned = false;
+        for (Iterator<Ballot> it = waiting.iterator(); it.hasNext(); ) {
+            Ballot ballot = it.next();
+            if (ballot.requesterId == requesterId && ballot.timestamp == timestamp) {
+                it.remove();
+                abandoned = true;
+                break;
+            }
+        }
+        // The vote may be stuck with a request whose release was lost. Its requester releases again if the
+        // request is over, so each timeout behind a lost release retries it.
+        if (abandoned && voteHolder != NONE) {
+            inquired = true;
+            int holder = voteHolder;
+            long holderTimestamp = voteTimestamp;
+            send(holder, NodeMetrics.Message.INQUIRE, node -> node.inquire(nodeId, holderTimestamp));
+        }
+    }
+
+    private void voteNext() {
+        Ballot next = waiting.poll();
+        if (next == null) {
+            voteHolder = NONE;
+            inquired = false;
+            return;
+        }
+        vote(next.requesterId, next.timestamp);
+    }
+
+    private void vote(int requesterId, long timestamp) {
+        voteHolder = requesterId;
+        voteTimestamp = timestamp;
+        inquired = false;
+        send(requesterId, NodeMetrics.Message.REPLY, node -> node.grant(nodeId, timestamp));
+    }
+
+    private void fail(Ballot ballot) {
+        ballot.failed = true;
+        send(ballot.requesterId, NodeMetrics.Message.FAILED, node -> node.failed(nodeId, ballot.timestamp));
+    }
+
+    // Requester side
+
+    void onGrant(int voterId, long timestamp) {
+        received(voterId, NodeMetrics.Message.REPLY, TraceRecorder.Event.REPLY_RECEIVED, timestamp);
+        int index = indexOf(voterId, timestamp);
+        if (index >= 0 && !voted[index]) {
+            voted[index] = true;
+            votes++;
+        }
+    }
+
+    void onFailed(int voterId, long timestamp) {
+        received(voterId, NodeMetrics.Message.FAILED, null, timestamp);
+        if (timestamp != requestTimestamp || isGranted()) {
+            return;
+        }
+        failed = true;
+        for (int inquirer : inquirers) {
+            relinquish(inquirer);
+        }
+        inquirers.clear();
+    }
+
+    void onInquire(int voterId, long timestamp) {
+        received(voterId, NodeMetrics.Message.INQUIRE, null, timestamp);
+        // The voter still counts a request that is over: its release was lost, or crossed this inquiry
+        if (timestamp != requestTimestamp) {
+            send(voterId, NodeMetrics.Message.RELEASE, node -> node.quorumRelease(nodeId, timestamp));
+            return;
+        }
+        // About to enter: the release gives the vote back soon enough
+        if (isGranted()) {
+            return;
+        }
+        if (failed || yielded) {
+            relinquish(voterId);
+        } else if (!inquirers.contains(voterId)) {
+            inquirers.add(voterId);
+        }
+    }
+
+    private void relinquish(int voterId) {
+        int index = indexOf(voterId, requestTimestamp);
+        if (index < 0 || !voted[index]) {
+            return;
+        }
+        voted[index] = false;
+        votes--;
+        yielded = true;
+        long timestamp = requestTimestamp;
+        send(voterId, NodeMetrics.Message.YIELD, node -> node.relinquish(nodeId, timestamp));
+    }
+
+    private int indexOf(int voterId, long timestamp) {
+        return timestamp == requestTimestamp && requestTimestamp != 0 ? Arrays.binarySearch(quorum, voterId) : -1;
+    }
+
+    // Messages to this node itself are handled at once, under the lock the caller already holds
+    private void send(int targetId, NodeMetrics.Message type, Message message) {
+        if (targetId == nodeId) {
+            try {
+                message.deliver(self);
+            } catch (RemoteException e) {
+                throw new IllegalStateException("Local delivery failed", e);
+            }
+            return;
+        }
+
+        PeerChannel channel = peers.get(targetId);
+        if (channel == null) {
+            if (Logger.isEnabled(Logger.Level.ERROR)) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send " + type.name().toLowerCase(Locale.ROOT) + " to Node " + targetId + ": not connected");
+            }
+            return;
+        }
+        metrics.sent(type, 1);
+        if (type == NodeMetrics.Message.REQUEST || type == NodeMetrics.Message.REPLY || type == NodeMetrics.Message.RELEASE) {
+            trace.record(sentEvent(type), targetId, 0, logicalClock.get());
+        }
+        channel.send(node -> message.deliver((QuorumNode) node)).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send " + type.name().toLowerCase(Locale.ROOT) + " to Node " + targetId);
+            }
+        });
+    }
+
+    private void received(int senderId, NodeMetrics.Message type, TraceRecorder.Event event, long timestamp) {
+        if (senderId == nodeId) {
+            return;
+        }
+        metrics.received(type);
+        if (event != null) {
+            trace.record(event, senderId, timestamp, logicalClock.get());
+        }
+    }
+
+    private static TraceRecorder.Event sentEvent(NodeMetrics.Message type) {
+        switch (type) {
+            case REQUEST:
+                return TraceRecorder.Event.REQUEST_SENT;
+            case REPLY:
+                return TraceRecorder.Event.REPLY_SENT;
+            default:
+                return TraceRecorder.Event.RELEASE_SENT;
+        }
+    }
+
+    private int[] peerIds() {
+        List<PeerChannel> channels = peers.snapshot();
+        int[] ids = new int[channels.size() + 1];
+        for (int i = 0; i < channels.size(); i++) {
+            ids[i] = channels.get(i).getPeerId();
+        }
+        ids[channels.size()] = nodeId;
+        return ids;
+    }
+
+    @FunctionalInterface
+    private interface Message {
+        void deliver(QuorumNode node) throws RemoteException;
+    }
+
+    // A request waiting for this node's vote; failed once its requester has been told it cannot have it yet
+    private static class Ballot implements Comparable<Ballot> {
+        private final int requesterId;
+        private final long timestamp;
+        private boolean failed;
+
+        private Ballot(int requesterId, long timestamp) {
+            this.requesterId = requesterId;
+            this.timestamp = timestamp;
+        }
+
+        // Older timestamp first, lower node id on a tie, as in Ricart-Agrawala
+        boolean isBefore(int otherId, long otherTimestamp) {
+            return timestamp < otherTimestamp || (timestamp == otherTimestamp && requesterId < otherId);
+        }
+
+        @Override
+        public int compareTo(Ballot other) {
+            int byTimestamp = Long.compare(timestamp, other.timestamp);
+            return byTimestamp != 0 ? byTimestamp : Integer.compare(requesterId, other.requesterId);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Membership changes returned by NodeRegistry.awaitMembershipChange: nodes that joined (or
+ * re-registered with a new stub) and nodes that left since the caller's version. A full delta
+ * lists every registered node in joined; the caller drops any peer it does not mention.
+ */
+public class MembershipDelta implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+    private final boolean full;
+    private final Map<Integer, Node> joined;
+    private final Set<Integer> left;
+
+    public MembershipDelta(long version, boolean full, Map<Integer, Node> joined, Set<Integer> left) {
+        this.version = version;
+        this.full = full;
+        this.joined = joined;
+        this.left = left;
+    }
+
+    public static MembershipDelta unchanged(long version) {
+        return new MembershipDelta(version, false, Collections.emptyMap(), Collections.emptySet());
+    }
+
+    // Pass back as sinceVersion on the next call
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public Map<Integer, Node> getJoined() {
+        return joined;
+    }
+
+    public Set<Integer> getLeft() {
+        return left;
+    }
+
+    public boolean isEmpty() {
+        return !full && joined.isEmpty() && left.isEmpty();
+    }
+}
@@ -0,0 +1,56 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable registry membership at one version. NodeRegistryImpl replaces the whole snapshot on
+ * every change (copy-on-write), so reads never lock and a snapshot can be handed out or sent as is.
+ */
+public class MembershipSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+    private final Map<Integer, Node> nodes;
+    private final List<Integer> nodeIds;
+
+    public MembershipSnapshot(long version, Map<Integer, Node> nodes) {
+        this.version = version;
+        this.nodes = Collections.unmodifiableMap(new HashMap<>(nodes));
+        this.nodeIds = Collections.unmodifiableList(new ArrayList<>(nodes.keySet()));
+    }
+
+    // A copy with nodeId registered (node != null) or removed (node == null)
+    public MembershipSnapshot with(long newVersion, int nodeId, Node node) {
+        Map<Integer, Node> copy = new HashMap<>(nodes);
+        if (node != null) {
+            copy.put(nodeId, node);
+        } else {
+            copy.remove(nodeId);
+        }
+        return new MembershipSnapshot(newVersion, copy);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<Integer, Node> getNodes() {
+        return nodes;
+    }
+
+    public List<Integer> getNodeIds() {
+        return nodeIds;
+    }
+
+    public Node getNode(int nodeId) {
+        return nodes.get(nodeId);
+    }
+
+    public boolean contains(int nodeId) {
+        return nodes.containsKey(nodeId);
+    }
+}
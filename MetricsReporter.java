@@ -0,0 +1,118 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the metrics of the nodes in this process: over HTTP at /metrics (JSON, or plain text
+ * with ?format=text) when Config.METRICS_PORT is set, and as a JSON file rewritten every
+ * Config.METRICS_INTERVAL_MS when Config.METRICS_FILE is set.
+ */
+public class MetricsReporter {
+
+    private final List<NodeImpl> nodes;
+    private HttpServer server;
+    private ScheduledExecutorService dumper;
+
+    private MetricsReporter(List<NodeImpl> nodes) {
+        this.nodes = nodes;
+    }
+
+    // Start whatever is configured; returns a reporter that does nothing if neither is
+    public static MetricsReporter start(List<NodeImpl> nodes) throws IOException {
+        MetricsReporter reporter = new MetricsReporter(nodes);
+        if (Config.METRICS_PORT > 0) {
+            reporter.startServer(Config.METRICS_PORT);
+        }
+        if (Config.METRICS_FILE != null) {
+            reporter.startDumper(Paths.get(Config.METRICS_FILE), Config.METRICS_INTERVAL_MS);
+        }
+        return reporter;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i > 0) {
+                json.append(",\n");
+            }
+            json.append(nodes.get(i).getMetrics().snapshot().toJson());
+        }
+        return json.append("]\n").toString();
+    }
+
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        for (NodeImpl node : nodes) {
+            text.append(node.getMetrics().snapshot().toText());
+        }
+        return text.toString();
+    }
+
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dump(Paths.get(Config.METRICS_FILE));
+        }
+    }
+
+    private void startServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        Logger.info("Metrics available at http://" + Config.LOCAL_HOST + ":" + port + "/metrics");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        boolean text = query != null && query.contains("format=text");
+        byte[] body = (text ? toText() : toJson()).getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", text ? "text/plain; charset=utf-8" : "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void startDumper(Path file, long intervalMs) {
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(file), intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        Logger.info("Writing metrics to " + file + " every " + intervalMs + " ms");
+    }
+
+    // Write to a temporary file and move it into place, so readers never see a partial snapshot
+    private void dump(Path file) {
+        try {
+            Path absolute = file.toAbsolutePath();
+            Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+            Files.write(temporary, toJson().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.error("Failed to write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+}
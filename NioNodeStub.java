@@ -0,0 +1,291 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client side of NioTransport: a Node that encodes each call as a binary frame.
+ * It is serializable so it can be registered in the NodeRegistry in place of an RMI stub;
+ * the connection is opened lazily on first use and kept open afterwards. Heartbeats use a second connection,
+ * so frames queued on the first never delay them.
+ */
+public class NioNodeStub implements Node, ResourceNode, QuorumNode, TokenNode, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int nodeId;
+    private final String host;
+    private final int port;
+
+    private final transient ReentrantLock writeLock;
+    private transient SocketChannel channel;
+    private transient ByteBuffer frame;
+    
+    private final transient ReentrantLock pingLock;
+    private transient Socket pingSocket;
+    private transient long pings;
+
+    public NioNodeStub(int nodeId, String host, int port) {
+        this.nodeId = nodeId;
+        this.host = host;
+        this.port = port;
+        this.writeLock = new ReentrantLock();
+        this.pingLock = new ReentrantLock();
+    }
+
+    // The grant arrives later as a separate reply frame, so the immediate answer is always true
+    @Override
+    public boolean request(int requesterId, long timestamp) throws RemoteException {
+        send(NioTransport.TYPE_REQUEST, requesterId, timestamp);
+        return true;
+    }
+
+    @Override
+    public boolean requestShared(int requesterId, long timestamp) throws RemoteException {
+        send(NioTransport.TYPE_REQUEST_SHARED, requesterId, timestamp);
+        return true;
+    }
+
+    // The receiving end is the requester, so only the request timestamp travels
+    @Override
+    public void reply(int replierId, int requesterId, long requestTimestamp) throws RemoteException {
+        send(NioTransport.TYPE_REPLY, replierId, requestTimestamp);
+    }
+
+    @Override
+    public void release(int releaserId) throws RemoteException {
+        send(NioTransport.TYPE_RELEASE, releaserId, 0);
+    }
+
+    @Override
+    public void requestResource(String resource, int requesterId, long timestamp) throws RemoteException {
+        send(NioTransport.TYPE_RESOURCE_REQUEST, requesterId, timestamp, resource);
+    }
+    
+    @Override
+    public void replyResource(String resource, int replierId, int requesterId, long requestTimestamp) throws RemoteException {
+        send(NioTransport.TYPE_RESOURCE_REPLY, replierId, requestTimestamp, resource);
+    }
+    
+    @Override
+    public void releaseResource(String resource, int releaserId) throws RemoteException {
+        send(NioTransport.TYPE_RESOURCE_RELEASE, releaserId, 0, resource);
+    }
+    
+    @Override
+    public void quorumRequest(int requesterId, long timestamp) throws RemoteException {
+        send(NioTransport.TYPE_QUORUM_REQUEST, requesterId, timestamp);
+    }
+    
+    @Override
+    public void grant(int voterId, long requestTimestamp) throws RemoteException {
+        send(NioTransport.TYPE_GRANT, voterId, requestTimestamp);
+    }
+    
+    @Override
+    public void inquire(int voterId, long requestTimestamp) throws RemoteException {
+        send(NioTransport.TYPE_INQUIRE, voterId, requestTimestamp);
+    }
+    
+    @Override
+    public void relinquish(int requesterId, long requestTimestamp) throws RemoteException {
+        send(NioTransport.TYPE_YIELD, requesterId, requestTimestamp);
+    }
+    
+    @Override
+    public void failed(int voterId, long requestTimestamp) throws RemoteException {
+        send(NioTransport.TYPE_FAILED, voterId, requestTimestamp);
+    }
+    
+    @Override
+    public void quorumRelease(int requesterId, long requestTimestamp) throws RemoteException {
+        send(NioTransport.TYPE_QUORUM_RELEASE, requesterId, requestTimestamp);
+    }
+    
+    @Override
+    public void tokenRequest(int requesterId, long sequence) throws RemoteException {
+        send(NioTransport.TYPE_TOKEN_REQUEST, requesterId, sequence);
+    }
+    
+    @Override
+    public void token(int senderId, Token token) throws RemoteException {
+        send(NioTransport.TYPE_TOKEN, senderId, 0, token.toBytes());
+    }
+    
+    @Override
+    public void tokenProbe(int proberId, long generation) throws RemoteException {
+        send(NioTransport.TYPE_TOKEN_PROBE, proberId, generation);
+    }
+    
+    @Override
+    public void tokenProbeReply(int voterId, long generation, long served) throws RemoteException {
+        send(NioTransport.TYPE_TOKEN_PROBE_REPLY, voterId, generation, ByteBuffer.allocate(8).putLong(served).array());
+    }
+    
+    @Override
+    public int getNodeId() throws RemoteException {
+        return nodeId;
+    }
+
+    // Alive means the peer's transport answered a ping within the response timeout
+    @Override
+    public boolean isAlive() throws RemoteException {
+        pingLock.lock();
+        try {
+            Socket socket = connectPing();
+            long sequence = ++pings;
+            ByteBuffer ping = ByteBuffer.allocate(NioTransport.FRAME_SIZE);
+            NioTransport.encode(ping, NioTransport.TYPE_PING, nodeId, sequence);
+            socket.getOutputStream().write(ping.array(), 0, ping.limit());
+            
+            byte[] answer = new byte[NioTransport.FRAME_SIZE];
+            new DataInputStream(socket.getInputStream()).readFully(answer);
+            ByteBuffer pong = ByteBuffer.wrap(answer);
+            if (pong.getInt(0) != NioTransport.TYPE_PONG || pong.getLong(8) != sequence) {
+                throw new IOException("unexpected answer to ping " + sequence);
+            }
+            return true;
+        } catch (IOException e) {
+            disconnectPing();
+            throw new ConnectException("No pong from Node " + nodeId + " at " + host + ":" + port, e);
+        } finally {
+            pingLock.unlock();
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    private void send(int type, int sender, long value) throws RemoteException {
+        send(type, sender, value, null, null);
+    }
+    
+    private void send(int type, int sender, long value, String resource) throws RemoteException {
+        send(type, sender, value, resource, null);
+    }
+    
+    private void send(int type, int sender, long value, byte[] payload) throws RemoteException {
+        send(type, sender, value, null, payload);
+    }
+    
+    private void send(int type, int sender, long value, String resource, byte[] payload) throws RemoteException {
+        writeLock.lock();
+        try {
+            SocketChannel target = connect();
+            // Only a token can outgrow the reusable frame buffer
+            ByteBuffer buffer = frame;
+            if (payload != null) {
+                int size = NioTransport.payloadFrameSize(payload.length);
+                buffer = size <= frame.capacity() ? frame : ByteBuffer.allocate(size);
+                NioTransport.encode(buffer, type, sender, value, payload);
+            } else if (resource == null) {
+                NioTransport.encode(buffer, type, sender, value);
+            } else {
+                NioTransport.encode(buffer, type, sender, value, resource);
+            }
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+        } catch (IOException e) {
+            disconnect();
+            throw new ConnectException("Failed to send to Node " + nodeId + " at " + host + ":" + port, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private SocketChannel connect() throws RemoteException {
+        if (channel != null && channel.isOpen()) {
+            return channel;
+        }
+        try {
+            SocketChannel opened = SocketChannel.open();
+            opened.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            opened.socket().connect(new InetSocketAddress(host, port), Config.NODE_RESPONSE_TIMEOUT_MS);
+            channel = opened;
+            frame = ByteBuffer.allocate(NioTransport.MAX_FRAME_SIZE);
+            return channel;
+        } catch (IOException e) {
+            disconnect();
+            throw new ConnectException("Cannot connect to Node " + nodeId + " at " + host + ":" + port, e);
+        }
+    }
+
+    private Socket connectPing() throws IOException {
+        if (pingSocket == null) {
+            Socket opened = new Socket();
+            try {
+                opened.setTcpNoDelay(true);
+                opened.setSoTimeout(Config.NODE_RESPONSE_TIMEOUT_MS);
+                opened.connect(new InetSocketAddress(host, port), Config.NODE_RESPONSE_TIMEOUT_MS);
+            } catch (IOException e) {
+                opened.close();
+                throw e;
+            }
+            pingSocket = opened;
+        }
+        return pingSocket;
+    }
+
+    private void disconnectPing() {
+        if (pingSocket != null) {
+            try {
+                pingSocket.close();
+            } catch (IOException e) {
+                Logger.debug("Failed to close ping connection to Node " + nodeId + ": " + e.getMessage());
+            }
+            pingSocket = null;
+        }
+    }
+
+    private void disconnect() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Logger.debug("Failed to close connection to Node " + nodeId + ": " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    // Transient connection state is recreated after deserialization
+    private Object readResolve() {
+        return new NioNodeStub(nodeId, host, port);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof NioNodeStub)) {
+            return false;
+        }
+        NioNodeStub that = (NioNodeStub) other;
+        return nodeId == that.nodeId && port == that.port && host.equals(that.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(nodeId, host, port);
+    }
+
+    @Override
+    public String toString() {
+        return "NioNodeStub[Node" + nodeId + "@" + host + ":" + port + "]";
+    }
+}
@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+
+/**
+ * Binary NIO transport for the Node protocol, an alternative to exporting the node over RMI.
+ * Every message is a fixed-size frame of (type, sender, value) sent over a persistent TCP connection;
+ * a single selector thread reads the frames and dispatches them to the local node.
+ * Lock manager frames are followed by the resource name (unsigned short length, then UTF-8 bytes),
+ * and token frames by a payload (int length, then the bytes), which may be larger than the receive buffer.
+ * Heartbeat pings come over a connection of their own and are answered with a pong on that connection.
+ */
+public class NioTransport {
+
+    public static final int FRAME_SIZE = 16;
+
+    public static final int TYPE_REQUEST = 1;   // value = request timestamp
+    public static final int TYPE_REPLY = 2;     // value = timestamp of the request being answered
+    public static final int TYPE_RELEASE = 3;   // value unused
+    public static final int TYPE_RESOURCE_REQUEST = 4;  // value = request timestamp, resource name follows
+    public static final int TYPE_RESOURCE_REPLY = 5;    // value = timestamp of the request being answered, resource name follows
+    public static final int TYPE_RESOURCE_RELEASE = 6;  // value unused, resource name follows
+    // Maekawa quorum messages (QuorumNode); value = timestamp of the request each one is about
+    public static final int TYPE_QUORUM_REQUEST = 7;
+    public static final int TYPE_GRANT = 8;
+    public static final int TYPE_INQUIRE = 9;
+    public static final int TYPE_YIELD = 10;
+    public static final int TYPE_FAILED = 11;
+    public static final int TYPE_QUORUM_RELEASE = 12;
+    // Suzuki-Kasami token messages (TokenNode)
+    public static final int TYPE_TOKEN_REQUEST = 13;      // value = request sequence number
+    public static final int TYPE_TOKEN = 14;              // value unused, encoded Token follows
+    public static final int TYPE_TOKEN_PROBE = 15;        // value = generation
+    public static final int TYPE_TOKEN_PROBE_REPLY = 16;  // value = generation, 8-byte served sequence number follows
+    public static final int TYPE_REQUEST_SHARED = 17;     // value = request timestamp
+    // Failure detector heartbeat, answered on the same connection; value = sequence number, echoed by the pong
+    public static final int TYPE_PING = 18;
+    public static final int TYPE_PONG = 19;
+    
+    public static final int MAX_RESOURCE_NAME_BYTES = 512;
+    public static final int MAX_FRAME_SIZE = FRAME_SIZE + 2 + MAX_RESOURCE_NAME_BYTES;
+    public static final int MAX_PAYLOAD_BYTES = 1 << 24;
+
+    private final Node local;
+    private final int nodeId;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final NioNodeStub stub;
+    private final Thread selectorThread;
+    private volatile boolean running;
+
+    private NioTransport(Node local, int nodeId, String advertisedHost, int port) throws IOException {
+        this.local = local;
+        this.nodeId = nodeId;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(port));
+        this.server.configureBlocking(false);
+        this.server.register(selector, SelectionKey.OP_ACCEPT);
+        this.stub = new NioNodeStub(nodeId, advertisedHost, server.socket().getLocalPort());
+        this.selectorThread = new Thread(this::run, "nio-transport-" + nodeId);
+        this.selectorThread.setDaemon(true);
+    }
+
+    // Listen on port (0 picks a free one) and dispatch incoming frames to local
+    public static NioTransport start(Node local, int nodeId, String advertisedHost, int port) throws IOException {
+        NioTransport transport = new NioTransport(local, nodeId, advertisedHost, port);
+        transport.running = true;
+        transport.selectorThread.start();
+        Logger.logNode(nodeId, Logger.Level.INFO, "NIO transport listening on port " + transport.stub.getPort());
+        return transport;
+    }
+
+    // Serializable handle that peers use to reach this node; safe to pass through the NodeRegistry
+    public NioNodeStub getStub() {
+        return stub;
+    }
+
+    // Safe to call more than once: cleanup runs both on quit and from the shutdown hook
+    public void close() {
+        if (!selector.isOpen()) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Logger.debug("Failed to close selector: " + e.getMessage());
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    Logger.logNode(nodeId, Logger.Level.ERROR, "NIO transport error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(MAX_FRAME_SIZE * 4));
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        try {
+            int count = channel.read(buffer);
+            if (count < 0) {
+                closeQuietly(key);
+                return;
+            }
+
+            buffer.flip();
+            int needed = 0;
+            while (buffer.remaining() >= FRAME_SIZE) {
+                int start = buffer.position();
+                int type = buffer.getInt(start);
+                int nameLength = 0;
+                int payloadLength = 0;
+                
+                if (hasPayload(type)) {
+                    if (buffer.remaining() < FRAME_SIZE + 4) {
+                        break;
+                    }
+                    payloadLength = buffer.getInt(start + FRAME_SIZE);
+                    if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_BYTES) {
+                        Logger.logNode(nodeId, Logger.Level.ERROR, "Invalid payload length " + payloadLength + ", closing connection");
+                        closeQuietly(key);
+                        return;
+                    }
+                    if (buffer.remaining() < FRAME_SIZE + 4 + payloadLength) {
+                        needed = FRAME_SIZE + 4 + payloadLength;
+                        break;
+                    }
+                } else if (hasResourceName(type)) {
+                    if (buffer.remaining() < FRAME_SIZE + 2) {
+                        break;
+                    }
+                    nameLength = Short.toUnsignedInt(buffer.getShort(start + FRAME_SIZE));
+                    if (buffer.remaining() < FRAME_SIZE + 2 + nameLength) {
+                        break;
+                    }
+                }
+                
+                buffer.getInt();
+                int sender = buffer.getInt();
+                long value = buffer.getLong();
+                if (type == TYPE_PING) {
+                    if (!pong(channel, value)) {
+                        closeQuietly(key);
+                        return;
+                    }
+                    continue;
+                }
+                String resource = null;
+                byte[] payload = null;
+                if (hasPayload(type)) {
+                    buffer.getInt();
+                    payload = new byte[payloadLength];
+                    buffer.get(payload);
+                } else if (hasResourceName(type)) {
+                    buffer.getShort();
+                    byte[] name = new byte[nameLength];
+                    buffer.get(name);
+                    resource = new String(name, StandardCharsets.UTF_8);
+                }
+                dispatch(type, sender, value, resource, payload);
+            }
+            buffer.compact();
+            
+            // A frame larger than the buffer: move what has arrived so far into one big enough for it
+            if (needed > buffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(needed);
+                buffer.flip();
+                larger.put(buffer);
+                key.attach(larger);
+            }
+        } catch (IOException e) {
+            closeQuietly(key);
+        }
+    }
+
+    // Answered by this thread, so a pong shows the transport is still reading, not only that the socket is open.
+    // A ping connection carries nothing else, so the pong fits its send buffer unless the pinger stopped reading.
+    private boolean pong(SocketChannel channel, long sequence) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+        encode(frame, TYPE_PONG, nodeId, sequence);
+        channel.write(frame);
+        return !frame.hasRemaining();
+    }
+
+    private void dispatch(int type, int sender, long value, String resource, byte[] payload) {
+        try {
+            switch (type) {
+                case TYPE_REQUEST:
+                    local.request(sender, value);
+                    break;
+                case TYPE_REQUEST_SHARED:
+                    local.requestShared(sender, value);
+                    break;
+                case TYPE_REPLY:
+                    local.reply(sender, nodeId, value);
+                    break;
+                case TYPE_RELEASE:
+                    local.release(sender);
+                    break;
+                case TYPE_RESOURCE_REQUEST:
+                    ((ResourceNode) local).requestResource(resource, sender, value);
+                    break;
+                case TYPE_RESOURCE_REPLY:
+                    ((ResourceNode) local).replyResource(resource, sender, nodeId, value);
+                    break;
+                case TYPE_RESOURCE_RELEASE:
+                    ((ResourceNode) local).releaseResource(resource, sender);
+                    break;
+                case TYPE_QUORUM_REQUEST:
+                    ((QuorumNode) local).quorumRequest(sender, value);
+                    break;
+                case TYPE_GRANT:
+                    ((QuorumNode) local).grant(sender, value);
+                    break;
+                case TYPE_INQUIRE:
+                    ((QuorumNode) local).inquire(sender, value);
+                    break;
+                case TYPE_YIELD:
+                    ((QuorumNode) local).relinquish(sender, value);
+                    break;
+                case TYPE_FAILED:
+                    ((QuorumNode) local).failed(sender, value);
+                    break;
+                case TYPE_QUORUM_RELEASE:
+                    ((QuorumNode) local).quorumRelease(sender, value);
+                    break;
+                case TYPE_TOKEN_REQUEST:
+                    ((TokenNode) local).tokenRequest(sender, value);
+                    break;
+                case TYPE_TOKEN:
+                    ((TokenNode) local).token(sender, Token.fromBytes(payload));
+                    break;
+                case TYPE_TOKEN_PROBE:
+                    ((TokenNode) local).tokenProbe(sender, value);
+                    break;
+                case TYPE_TOKEN_PROBE_REPLY:
+                    ((TokenNode) local).tokenProbeReply(sender, value, ByteBuffer.wrap(payload).getLong());
+                    break;
+                default:
+                    Logger.logNode(nodeId, Logger.Level.ERROR, "Unknown frame type " + type + " from Node " + sender);
+            }
+        } catch (RemoteException e) {
+            Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to handle frame from Node " + sender + ": " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            Logger.debug("Failed to close channel: " + e.getMessage());
+        }
+    }
+
+    private static boolean hasResourceName(int type) {
+        return type == TYPE_RESOURCE_REQUEST || type == TYPE_RESOURCE_REPLY || type == TYPE_RESOURCE_RELEASE;
+    }
+
+    private static boolean hasPayload(int type) {
+        return type == TYPE_TOKEN || type == TYPE_TOKEN_PROBE_REPLY;
+    }
+    
+    // Encode one frame into buffer, ready to be written
+    static void encode(ByteBuffer buffer, int type, int sender, long value) {
+        buffer.clear();
+        buffer.putInt(type).putInt(sender).putLong(value);
+        buffer.flip();
+    }
+    
+    // Encode a lock manager frame: the fixed header followed by the resource name
+    static void encode(ByteBuffer buffer, int type, int sender, long value, String resource) {
+        byte[] name = resource.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_RESOURCE_NAME_BYTES) {
+            throw new IllegalArgumentException("Resource name longer than " + MAX_RESOURCE_NAME_BYTES + " bytes: " + resource);
+        }
+        buffer.clear();
+        buffer.putInt(type).putInt(sender).putLong(value);
+        buffer.putShort((short) name.length).put(name);
+        buffer.flip();
+    }
+    
+    // Size of a frame carrying a payload of this many bytes
+    static int payloadFrameSize(int payloadLength) {
+        return FRAME_SIZE + 4 + payloadLength;
+    }
+    
+    // Encode a token frame: the fixed header followed by the payload; buffer must hold payloadFrameSize() bytes
+    static void encode(ByteBuffer buffer, int type, int sender, long value, byte[] payload) {
+        if (payload.length > MAX_PAYLOAD_BYTES) {
+            throw new IllegalArgumentException("Payload longer than " + MAX_PAYLOAD_BYTES + " bytes");
+        }
+        buffer.clear();
+        buffer.putInt(type).putInt(sender).putLong(value);
+        buffer.putInt(payload.length).put(payload);
+        buffer.flip();
+    }
+}
@@ -5,7 +5,11 @@ public interface Node extends Remote {
     
     boolean request(int requesterId, long timestamp) throws RemoteException;
     
-    void reply(int replierId, int requesterId) throws RemoteException;
+    // A request to enter as a reader: other readers grant it even from inside the critical section
+    boolean requestShared(int requesterId, long timestamp) throws RemoteException;
+    
+    // requestTimestamp echoes the request being answered, so a late reply to an abandoned request is recognised
+    void reply(int replierId, int requesterId, long requestTimestamp) throws RemoteException;
     
     void release(int releaserId) throws RemoteException;
     
@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/**
+ * Set of node ids or peer slots backed by a long[] bitset that grows with the largest id seen.
+ * Not thread-safe: callers guard it with their own lock. Membership changes and
+ * iteration through nextId() do not allocate.
+ */
+public class NodeBitSet {
+
+    private long[] words;
+    private int size;
+
+    public NodeBitSet() {
+        this(64);
+    }
+
+    public NodeBitSet(int expectedMaxId) {
+        this.words = new long[Math.max(1, (expectedMaxId >>> 6) + 1)];
+    }
+
+    // Returns true if id was not already present
+    public boolean add(int id) {
+        ensureCapacity(id);
+        int index = id >>> 6;
+        long mask = 1L << id;
+        if ((words[index] & mask) != 0) {
+            return false;
+        }
+        words[index] |= mask;
+        size++;
+        return true;
+    }
+
+    // Returns true if id was present
+    public boolean remove(int id) {
+        int index = id >>> 6;
+        if (id < 0 || index >= words.length) {
+            return false;
+        }
+        long mask = 1L << id;
+        if ((words[index] & mask) == 0) {
+            return false;
+        }
+        words[index] &= ~mask;
+        size--;
+        return true;
+    }
+
+    public boolean contains(int id) {
+        int index = id >>> 6;
+        return id >= 0 && index < words.length && (words[index] & (1L << id)) != 0;
+    }
+
+    // Smallest id >= from in the set, or -1 if there is none
+    public int nextId(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        int index = from >>> 6;
+        if (index >= words.length) {
+            return -1;
+        }
+        long word = words[index] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (index << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++index == words.length) {
+                return -1;
+            }
+            word = words[index];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(words, 0L);
+            size = 0;
+        }
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Node id must not be negative: " + id);
+        }
+        int index = id >>> 6;
+        if (index >= words.length) {
+            words = Arrays.copyOf(words, Math.max(words.length * 2, index + 1));
+        }
+    }
+}
@@ -1,10 +1,12 @@
 import java.rmi.RemoteException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class NodeImpl implements Node {
+public class NodeImpl implements Node, ResourceNode, QuorumNode, TokenNode {
     
     public enum State {
         REQUESTING,  // Requesting access to critical section
@@ -13,58 +15,179 @@ public class NodeImpl implements Node {
     }
     
     private final int nodeId;
-    private final List<Node> otherNodes;
+    private final PeerTable peers;
     private final AtomicLong logicalClock;
     private final ReentrantLock lock;
+    private final Condition repliesComplete;
     
     private State state;
     private long requestTimestamp;
-    private int repliesReceived;
-    private final Map<Integer, Boolean> deferredReplies;
-    private final int totalNodes;
+    private boolean requestShared;
+    private boolean requestFailed;
     
-    public NodeImpl(int nodeId, List<Node> otherNodes, int totalNodes) throws RemoteException {
+    // Per-peer state is kept by slot rather than by id, so it grows with the number of peers, whatever their ids
+    private final NodeIndex peerSlots;
+    private final NodeBitSet pendingReplies;
+    private final DeferredReplies deferredReplies;
+    
+    // Roucairol-Carvalho: peers whose permission we still hold because we have not replied to them since
+    private final boolean permissionReuse;
+    private final NodeBitSet authorized;
+    
+    private final LockManager lockManager;
+    private final DistributedMutex mutex;
+    private final DistributedMutex sharedMutex;
+    
+    private final NodeMetrics metrics;
+    private final TraceRecorder trace;
+    
+    // Algorithm that replaces the Ricart-Agrawala rounds (-Dalgorithm), or null to run them
+    private final ExclusionEngine engine;
+    
+    // Peers the failure detector currently considers down; they are neither asked nor waited for
+    private final NodeBitSet suspected;
+    private FailureDetector failureDetector;
+    private long requestStartNanos;
+    private long enteredNanos;
+    
+    // Local threads waiting for the critical section, in arrival order. While the node holds it, a releasing
+    // thread hands it to the next one without a new round, up to handoffBudget times while a peer is waiting.
+    private final ArrayDeque<Waiter> localWaiters;
+    private final int handoffBudget;
+    private int handoffs;
+    
+    public NodeImpl(int nodeId, Map<Integer, Node> otherNodes) throws RemoteException {
+        this(nodeId, otherNodes, otherNodes.size() + 1);
+    }
+    
+    // expectedNodes only sizes the per-peer structures up front; they grow as peers join
+    public NodeImpl(int nodeId, Map<Integer, Node> otherNodes, int expectedNodes) throws RemoteException {
+        this(nodeId, otherNodes, expectedNodes, Threads.executor());
+    }
+    
+    // senders makes the remote calls queued on the peer channels; the simulator passes one that runs them inline
+    NodeImpl(int nodeId, Map<Integer, Node> otherNodes, int expectedNodes, Executor senders) throws RemoteException {
         this.nodeId = nodeId;
-        this.otherNodes = new ArrayList<>(otherNodes);
-        this.totalNodes = totalNodes;
+        this.peers = new PeerTable(senders);
         this.logicalClock = new AtomicLong(0);
         this.lock = new ReentrantLock();
+        this.repliesComplete = lock.newCondition();
         this.state = State.RELEASED;
         this.requestTimestamp = 0;
-        this.repliesReceived = 0;
-        this.deferredReplies = new ConcurrentHashMap<>();
+        this.peerSlots = new NodeIndex(expectedNodes);
+        this.pendingReplies = new NodeBitSet(expectedNodes);
+        this.deferredReplies = new DeferredReplies(expectedNodes);
+        this.permissionReuse = Config.isPermissionReuseEnabled();
+        this.authorized = new NodeBitSet(expectedNodes);
+        this.lockManager = new LockManager(nodeId, peers);
+        this.mutex = new DistributedMutex(this, false);
+        this.sharedMutex = new DistributedMutex(this, true);
+        this.metrics = new NodeMetrics(nodeId, this::getQueueDepths);
+        this.trace = TraceRecorder.open(nodeId);
+        this.engine = newEngine();
+        this.suspected = new NodeBitSet(expectedNodes);
+        this.localWaiters = new ArrayDeque<>();
+        this.handoffBudget = Config.LOCAL_HANDOFF_BUDGET;
+        updateOtherNodes(otherNodes);
+    }
+    
+    // The algorithm other than Ricart-Agrawala selected by Config.ALGORITHM, or null
+    private ExclusionEngine newEngine() {
+        if (Config.isMaekawaEnabled()) {
+            return new MaekawaEngine(nodeId, peers, this, metrics, trace, logicalClock);
+        }
+        if (Config.isSuzukiKasamiEnabled()) {
+            return new SuzukiKasamiEngine(nodeId, peers, this, metrics, trace, logicalClock);
+        }
+        return null;
     }
     
     // Handle incoming request from another node
     @Override
     public boolean request(int requesterId, long timestamp) throws RemoteException {
+        return onRequest(requesterId, timestamp, false);
+    }
+    
+    @Override
+    public boolean requestShared(int requesterId, long timestamp) throws RemoteException {
+        return onRequest(requesterId, timestamp, true);
+    }
+    
+    private boolean onRequest(int requesterId, long timestamp, boolean shared) {
+        boolean shouldGrant;
+        boolean revived;
         lock.lock();
         try {
             updateLogicalClock(timestamp);
+            metrics.received(NodeMetrics.Message.REQUEST);
+            trace.record(TraceRecorder.Event.REQUEST_RECEIVED, requesterId, timestamp, logicalClock.get());
             
-            Logger.logNode(nodeId, Logger.Level.INFO, "Received request from Node " + requesterId + " [timestamp:" + logicalClock.get() + "]");
+            if (Logger.isEnabled(Logger.Level.INFO)) {
+                Logger.logNode(nodeId, Logger.Level.INFO, "Received request from Node " + requesterId + " [timestamp:" + logicalClock.get() + "]");
+            }
             
-            boolean shouldGrant = shouldGrantPermission(requesterId, timestamp);
+            shouldGrant = shouldGrantPermission(requesterId, timestamp, shared);
             
             if (shouldGrant) {
-                Logger.logNode(nodeId, Logger.Level.INFO, "Grants permission to Node " + requesterId);
-                sendReply(requesterId);
-                return true;
+                if (Logger.isEnabled(Logger.Level.INFO)) {
+                    Logger.logNode(nodeId, Logger.Level.INFO, "Grants permission to Node " + requesterId);
+                }
+                sendReply(requesterId, timestamp);
+                
+                // We gave up a permission we were counting on, so it has to be asked for again; not between
+                // readers, whose permissions never exclude each other (asking would only bounce back and forth)
+                if (permissionReuse && state == State.REQUESTING && !(shared && requestShared)) {
+                    askAgain(requesterId);
+                }
             } else {
-                deferredReplies.put(requesterId, true);
-                return false;
+                int slot = peerSlot(requesterId);
+                if (slot >= 0) {
+                    deferredReplies.put(slot, timestamp);
+                    metrics.deferred();
+                } else if (Logger.isEnabled(Logger.Level.ERROR)) {
+                    Logger.logNode(nodeId, Logger.Level.ERROR, "Cannot defer reply to Node " + requesterId + ": not connected");
+                }
             }
+            
+            // A request shows a suspected peer is alive, without waiting for the detector to notice
+            revived = markAlive(requesterId);
         } finally {
             lock.unlock();
         }
+        if (revived) {
+            lockManager.peerRecovered(requesterId);
+        }
+        return shouldGrant;
     }
     
     @Override
-    public void reply(int replierId, int requesterId) throws RemoteException {
+    public void reply(int replierId, int requesterId, long requestTimestamp) throws RemoteException {
         lock.lock();
         try {
-            Logger.logNode(nodeId, Logger.Level.INFO, "Received reply from Node " + replierId + " [timestamp:" + logicalClock.get() + "]");
-            repliesReceived++;
+            metrics.received(NodeMetrics.Message.REPLY);
+            trace.record(TraceRecorder.Event.REPLY_RECEIVED, replierId, requestTimestamp, logicalClock.get());
+            if (Logger.isEnabled(Logger.Level.INFO)) {
+                Logger.logNode(nodeId, Logger.Level.INFO, "Received reply from Node " + replierId + " [timestamp:" + logicalClock.get() + "]");
+            }
+            
+            // Late replies to an abandoned request must not count toward the next one. With permission reuse
+            // they must not be kept either: the abandoning side may already have sent its own reply the other
+            // way, and keeping both would leave the pair's permission on both nodes.
+            int slot = peerSlots.slotOf(replierId);
+            if (state != State.REQUESTING || requestTimestamp != this.requestTimestamp || slot < 0) {
+                return;
+            }
+            
+            // A peer inside as a reader answers a shared request at once, so only an exclusive grant can be reused
+            if (permissionReuse && !requestShared) {
+                authorized.add(slot);
+            }
+            if (pendingReplies.remove(slot)) {
+                metrics.replyReceived(replierId, System.nanoTime() - requestStartNanos);
+                if (pendingReplies.isEmpty()) {
+                    repliesComplete.signalAll();
+                }
+            }
         } finally {
             lock.unlock();
         }
@@ -74,24 +197,110 @@ public class NodeImpl implements Node {
     public void release(int releaserId) throws RemoteException {
         lock.lock();
         try {
-            Logger.logNode(nodeId, Logger.Level.INFO, "Received release from Node " + releaserId + " [timestamp:" + logicalClock.get() + "]");
+            metrics.received(NodeMetrics.Message.RELEASE);
+            trace.record(TraceRecorder.Event.RELEASE_RECEIVED, releaserId, 0, logicalClock.get());
+            if (Logger.isEnabled(Logger.Level.INFO)) {
+                Logger.logNode(nodeId, Logger.Level.INFO, "Received release from Node " + releaserId + " [timestamp:" + logicalClock.get() + "]");
+            }
             
-            int deferredCount = 0;
-            for (Map.Entry<Integer, Boolean> entry : deferredReplies.entrySet()) {
-                if (entry.getValue()) {
-                    int deferredNodeId = entry.getKey();
-                    sendReply(deferredNodeId);
-                    deferredCount++;
-                }
+            // The releaser is no longer requesting, so a reply still deferred for it is no longer owed
+            int slot = peerSlots.slotOf(releaserId);
+            if (slot >= 0) {
+                deferredReplies.remove(slot);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Quorum and token messages go to their engine under the node lock; a node running another algorithm ignores them
+    @Override
+    public void quorumRequest(int requesterId, long timestamp) throws RemoteException {
+        onEngineMessage(MaekawaEngine.class, timestamp, maekawa -> maekawa.onRequest(requesterId, timestamp));
+    }
+    
+    @Override
+    public void grant(int voterId, long requestTimestamp) throws RemoteException {
+        onEngineMessage(MaekawaEngine.class, 0, maekawa -> maekawa.onGrant(voterId, requestTimestamp));
+    }
+    
+    @Override
+    public void inquire(int voterId, long requestTimestamp) throws RemoteException {
+        onEngineMessage(MaekawaEngine.class, 0, maekawa -> maekawa.onInquire(voterId, requestTimestamp));
+    }
+    
+    @Override
+    public void relinquish(int requesterId, long requestTimestamp) throws RemoteException {
+        onEngineMessage(MaekawaEngine.class, 0, maekawa -> maekawa.onRelinquish(requesterId, requestTimestamp));
+    }
+    
+    @Override
+    public void failed(int voterId, long requestTimestamp) throws RemoteException {
+        onEngineMessage(MaekawaEngine.class, 0, maekawa -> maekawa.onFailed(voterId, requestTimestamp));
+    }
+    
+    @Override
+    public void quorumRelease(int requesterId, long requestTimestamp) throws RemoteException {
+        onEngineMessage(MaekawaEngine.class, 0, maekawa -> maekawa.onRelease(requesterId, requestTimestamp));
+    }
+    
+    @Override
+    public void tokenRequest(int requesterId, long sequence) throws RemoteException {
+        onEngineMessage(SuzukiKasamiEngine.class, 0, suzukiKasami -> suzukiKasami.onRequest(requesterId, sequence));
+    }
+    
+    @Override
+    public void token(int senderId, Token token) throws RemoteException {
+        onEngineMessage(SuzukiKasamiEngine.class, 0, suzukiKasami -> suzukiKasami.onToken(senderId, token));
+    }
+    
+    @Override
+    public void tokenProbe(int proberId, long generation) throws RemoteException {
+        onEngineMessage(SuzukiKasamiEngine.class, 0, suzukiKasami -> suzukiKasami.onProbe(proberId, generation));
+    }
+    
+    @Override
+    public void tokenProbeReply(int voterId, long generation, long served) throws RemoteException {
+        onEngineMessage(SuzukiKasamiEngine.class, 0, suzukiKasami -> suzukiKasami.onProbeReply(voterId, generation, served));
+    }
+    
+    // timestamp advances the logical clock if it is a new request's (0 otherwise)
+    private <E extends ExclusionEngine> void onEngineMessage(Class<E> type, long timestamp, Consumer<E> handler) {
+        lock.lock();
+        try {
+            if (!type.isInstance(engine)) {
+                return;
+            }
+            if (timestamp > 0) {
+                updateLogicalClock(timestamp);
+            }
+            handler.accept(type.cast(engine));
+            if (state == State.REQUESTING && engine.isGranted()) {
+                repliesComplete.signalAll();
             }
-            deferredReplies.clear();
         } finally {
             lock.unlock();
         }
     }
     
+    // Resource messages are handled by the lock manager under the resource's own lock, never the node lock
+    @Override
+    public void requestResource(String resource, int requesterId, long timestamp) throws RemoteException {
+        lockManager.handleRequest(resource, requesterId, timestamp);
+    }
+    
+    @Override
+    public void replyResource(String resource, int replierId, int requesterId, long requestTimestamp) throws RemoteException {
+        lockManager.handleReply(resource, replierId, requestTimestamp);
+    }
+    
+    @Override
+    public void releaseResource(String resource, int releaserId) throws RemoteException {
+        lockManager.handleRelease(resource, releaserId);
+    }
+    
     @Override
-    public int getNodeId() throws RemoteException {
+    public int getNodeId() {
         return nodeId;
     }
     
@@ -102,14 +311,31 @@ public class NodeImpl implements Node {
     
     // Grant permission based on Ricart-Agrawala algorithm:
     // 1. Grant if not requesting/held (idle state)
-    // 2. Grant if requester has earlier timestamp (higher priority)
-    // 3. Grant if same timestamp AND requester has lower ID (tie-breaker)
-    private boolean shouldGrantPermission(int requesterId, long timestamp) {
+    // 2. Grant if both requests are shared (readers never exclude each other)
+    // 3. Grant if requester has earlier timestamp (higher priority)
+    // 4. Grant if same timestamp AND requester has lower ID (tie-breaker)
+    boolean shouldGrantPermission(int requesterId, long timestamp) {
+        return shouldGrantPermission(requesterId, timestamp, false);
+    }
+    
+    boolean shouldGrantPermission(int requesterId, long timestamp, boolean shared) {
         // If not requesting or in critical section, always grant
         if (state != State.REQUESTING && state != State.HELD) {
             return true;
         }
         
+        // A reader lets other readers in even from inside. A writer, though, defers every later request,
+        // shared ones included, so a stream of readers cannot starve it.
+        if (shared && requestShared) {
+            return true;
+        }
+        
+        // Never grant from inside the critical section. Plain Ricart-Agrawala cannot receive an
+        // earlier request here, but with permission reuse our timestamp may be far ahead of an idle peer's
+        if (state == State.HELD) {
+            return false;
+        }
+        
         // Grant if requester has earlier timestamp (higher priority)
         if (timestamp < requestTimestamp) {
             return true;
@@ -125,114 +351,419 @@ public class NodeImpl implements Node {
         return false;
     }
     
-    private void sendReply(int requesterId) {
-        for (Node node : otherNodes) {
-            try {
-                if (node.getNodeId() == requesterId) {
-                    node.reply(nodeId, requesterId);
-                    break;
-                }
-            } catch (RemoteException e) {
+    // Only enqueues the reply; the peer's channel makes the remote call outside the node lock
+    private void sendReply(int requesterId, long timestamp) {
+        PeerChannel channel = peers.get(requesterId);
+        if (channel == null) {
+            if (Logger.isEnabled(Logger.Level.ERROR)) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send reply to Node " + requesterId + ": not connected");
+            }
+            return;
+        }
+        
+        int slot = peerSlots.slotOf(requesterId);
+        if (slot >= 0) {
+            authorized.remove(slot);
+        }
+        metrics.sent(NodeMetrics.Message.REPLY, 1);
+        trace.record(TraceRecorder.Event.REPLY_SENT, requesterId, timestamp, logicalClock.get());
+        channel.send(node -> node.reply(nodeId, requesterId, timestamp)).whenComplete((ignored, failure) -> {
+            if (failure != null) {
                 Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send reply to Node " + requesterId);
             }
+        });
+    }
+    
+    private void sendRequest(int targetId, long timestamp) {
+        PeerChannel channel = peers.get(targetId);
+        if (channel == null) {
+            if (Logger.isEnabled(Logger.Level.ERROR)) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send request to Node " + targetId + ": not connected");
+            }
+            return;
+        }
+        
+        metrics.sent(NodeMetrics.Message.REQUEST, 1);
+        trace.record(TraceRecorder.Event.REQUEST_SENT, targetId, timestamp, logicalClock.get());
+        boolean shared = requestShared;
+        channel.send(node -> callRequest(node, timestamp, shared)).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send request to Node " + targetId);
+            }
+        });
+    }
+    
+    // Ask the peer for the current request again, unless its reply is still pending or already held (lock held)
+    private void askAgain(int peerId) {
+        int slot = peerSlot(peerId);
+        if (slot >= 0 && !authorized.contains(slot) && pendingReplies.add(slot)) {
+            sendRequest(peerId, requestTimestamp);
+        }
+    }
+    
+    private void callRequest(Node node, long timestamp, boolean shared) throws RemoteException {
+        if (shared) {
+            node.requestShared(nodeId, timestamp);
+        } else {
+            node.request(nodeId, timestamp);
+        }
+    }
+    
+    private void sendRelease(int targetId) {
+        PeerChannel channel = peers.get(targetId);
+        if (channel == null) {
+            return;
         }
+        
+        metrics.sent(NodeMetrics.Message.RELEASE, 1);
+        trace.record(TraceRecorder.Event.RELEASE_SENT, targetId, 0, logicalClock.get());
+        channel.send(node -> node.release(nodeId)).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send release to Node " + targetId);
+            }
+        });
+    }
+    
+    // Acquire the critical section, waiting at most timeoutNanos (Long.MAX_VALUE waits indefinitely).
+    // Returns false if the request was abandoned; peers that had not replied are told to drop it.
+    boolean acquire(long timeoutNanos) throws InterruptedException {
+        return acquire(timeoutNanos, false);
     }
     
-    public void requestCriticalSection() {
+    // shared: enter as a reader, alongside readers on other nodes. Threads of one node still take turns.
+    boolean acquire(long timeoutNanos, boolean shared) throws InterruptedException {
+        long deadline = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + timeoutNanos;
+        List<PeerChannel> targets;
+        long timestamp;
+        
         lock.lock();
         try {
-            if (state == State.REQUESTING || state == State.HELD) {
-                Logger.logNode(nodeId, Logger.Level.INFO, "Already requesting or in critical section");
-                return;
+            // Another local caller is requesting or inside the critical section: queue behind it. The queue
+            // is either handed the section by a releasing caller, or reaches its head once the node is released
+            if (state != State.RELEASED || !localWaiters.isEmpty()) {
+                Waiter waiter = new Waiter(lock.newCondition(), System.nanoTime(), shared);
+                localWaiters.add(waiter);
+                try {
+                    while (!waiter.granted && (state != State.RELEASED || localWaiters.peek() != waiter)) {
+                        if (!await(waiter.turn, deadline)) {
+                            leaveQueue(waiter);
+                            return false;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    if (!waiter.granted) {
+                        leaveQueue(waiter);
+                        throw e;
+                    }
+                    // Handed the section just as we were interrupted: take it and leave the interrupt to the caller
+                    Thread.currentThread().interrupt();
+                }
+                
+                if (waiter.granted) {
+                    metrics.entered(System.nanoTime() - waiter.since);
+                    if (Logger.isEnabled(Logger.Level.INFO)) {
+                        Logger.logNode(nodeId, Logger.Level.INFO, "*** ENTERED CRITICAL SECTION *** (handed over locally) [timestamp:" + logicalClock.get() + "]");
+                    }
+                    return true;
+                }
+                localWaiters.poll();
             }
             
-            state = State.REQUESTING;
-            requestTimestamp = logicalClock.incrementAndGet();
-            repliesReceived = 0;
-            deferredReplies.clear();
+            // A zero timeout cannot wait for any reply: only try when nothing has to be asked for
+            if (timeoutNanos == 0 && !canEnterWithoutAsking()) {
+                return false;
+            }
+            targets = prepareRequest(shared);
+            timestamp = requestTimestamp;
+        } finally {
+            lock.unlock();
+        }
+        
+        sendRequests(targets, timestamp, shared);
+        
+        // Block until the last reply arrives; reply() signals as soon as the set is empty
+        lock.lock();
+        try {
+            while (!isGranted() && !requestFailed) {
+                if (!await(repliesComplete, deadline)) {
+                    Logger.logNode(nodeId, Logger.Level.ERROR, "Timeout waiting for replies");
+                    metrics.timedOut();
+                    cancelRequest();
+                    return false;
+                }
+            }
             
-            Logger.logNode(nodeId, Logger.Level.INFO, "Requesting critical section [timestamp:" + requestTimestamp + "]");
+            // A peer that never saw the request cannot reply, so there is no point waiting for it
+            if (requestFailed) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Request could not be delivered to every peer");
+                metrics.requestFailed();
+                cancelRequest();
+                return false;
+            }
             
+            enter();
+            return true;
+        } catch (InterruptedException e) {
+            Logger.logNode(nodeId, Logger.Level.ERROR, "Thread interrupted while waiting for replies");
+            cancelRequest();
+            throw e;
         } finally {
             lock.unlock();
         }
-        
-        for (Node node : otherNodes) {
-            try {
-                node.request(nodeId, requestTimestamp);
-            } catch (RemoteException e) {
-                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send request to node");
+    }
+    
+    // Event-driven form of acquire() for callers that must not block, such as the simulator: beginRequest()
+    // sends the request, enterIfGranted() enters once every reply is in, abandonRequest() gives the request up
+    long beginRequest(boolean shared) {
+        List<PeerChannel> targets;
+        long timestamp;
+        lock.lock();
+        try {
+            if (state != State.RELEASED) {
+                throw new IllegalStateException("Node " + nodeId + " is already requesting or in the critical section");
             }
+            targets = prepareRequest(shared);
+            timestamp = requestTimestamp;
+        } finally {
+            lock.unlock();
         }
-        
-        waitForReplies();
-        
-        if (repliesReceived < otherNodes.size()) {
-            Logger.logNode(nodeId, Logger.Level.ERROR, "Timeout waiting for replies");
-            state = State.RELEASED;
-            return;
+        sendRequests(targets, timestamp, shared);
+        return timestamp;
+    }
+    
+    boolean enterIfGranted() {
+        lock.lock();
+        try {
+            if (state != State.REQUESTING || !isGranted() || requestFailed) {
+                return false;
+            }
+            enter();
+            return true;
+        } finally {
+            lock.unlock();
         }
-        
-        Logger.logNode(nodeId, Logger.Level.INFO, "Received all replies, entering critical section");
-        
-        enterCriticalSection();
     }
     
-    private void waitForReplies() {
+    // Give up the request with this timestamp as acquire() does on timeout; false if it is no longer pending
+    boolean abandonRequest(long timestamp) {
+        lock.lock();
         try {
-            long startTime = System.currentTimeMillis();
-            
-            while (repliesReceived < otherNodes.size()) {
-                if (System.currentTimeMillis() - startTime > Config.NODE_RESPONSE_TIMEOUT_MS) {
-                    break;
-                }
-                Thread.sleep(Config.POLLING_INTERVAL);
+            if (state != State.REQUESTING || requestTimestamp != timestamp) {
+                return false;
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            Logger.logNode(nodeId, Logger.Level.ERROR, "Thread interrupted while waiting for replies");
+            Logger.logNode(nodeId, Logger.Level.ERROR, "Timeout waiting for replies");
+            metrics.timedOut();
+            cancelRequest();
+            return true;
+        } finally {
+            lock.unlock();
         }
     }
     
-    private void enterCriticalSection() {
+    // Mode of the current request: a shared one is made exclusive under algorithms without a shared mode
+    boolean isRequestShared() {
         lock.lock();
         try {
-            state = State.HELD;
+            return requestShared;
         } finally {
             lock.unlock();
         }
+    }
+    
+    // Start a new request (lock held) and return the peers that have to be asked
+    private List<PeerChannel> prepareRequest(boolean shared) {
+        state = State.REQUESTING;
+        requestTimestamp = logicalClock.incrementAndGet();
+        // The other algorithms only know exclusive entry
+        requestShared = shared && engine == null;
+        requestFailed = false;
+        requestStartNanos = System.nanoTime();
+        pendingReplies.clear();
+        if (Logger.isEnabled(Logger.Level.INFO)) {
+            Logger.logNode(nodeId, Logger.Level.INFO, "Requesting critical section [timestamp:" + requestTimestamp + "]");
+        }
         
-        Logger.logNode(nodeId, Logger.Level.INFO, "*** ENTERED CRITICAL SECTION *** [timestamp:" + logicalClock.get() + "]");
+        // Another algorithm asks peers of its own choosing, queued right here
+        if (engine != null) {
+            engine.begin(requestTimestamp);
+            return Collections.emptyList();
+        }
         
+        // Permissions still held from earlier entries need not be asked for again
+        List<PeerChannel> targets = new ArrayList<>();
+        for (PeerChannel channel : peers.snapshot()) {
+            int slot = peerSlots.add(channel.getPeerId());
+            if (!authorized.contains(slot) && !suspected.contains(slot)) {
+                targets.add(channel);
+                pendingReplies.add(slot);
+            }
+        }
+        return targets;
+    }
+    
+    // A request made now would be granted without a message: every permission is held, or the engine
+    // has what it needs here (lock held)
+    private boolean canEnterWithoutAsking() {
+        if (engine != null) {
+            return engine.canEnterAlone();
+        }
+        for (PeerChannel channel : peers.snapshot()) {
+            int slot = peerSlots.slotOf(channel.getPeerId());
+            if (slot < 0 || (!authorized.contains(slot) && !suspected.contains(slot))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Every permission for the current request is in (lock held)
+    private boolean isGranted() {
+        return engine != null ? engine.isGranted() : pendingReplies.isEmpty();
+    }
+    
+    // Some peer is waiting for the critical section (lock held)
+    private boolean hasWaitingPeers() {
+        return engine != null ? engine.hasWaitingPeers() : !deferredReplies.isEmpty();
+    }
+    
+    private void sendRequests(List<PeerChannel> targets, long timestamp, boolean shared) {
+        metrics.sent(NodeMetrics.Message.REQUEST, targets.size());
+        trace.record(TraceRecorder.Event.REQUEST_SENT, TraceRecorder.NO_PEER, timestamp, timestamp);
+        Broadcaster.broadcastAsync(targets, node -> callRequest(node, timestamp, shared))
+            .thenAccept(result -> onRequestDelivered(timestamp, result));
+    }
+    
+    // Every reply is in (lock held)
+    private void enter() {
+        Logger.logNode(nodeId, Logger.Level.INFO, "Received all replies, entering critical section");
+        state = State.HELD;
+        handoffs = 0;
+        enteredNanos = System.nanoTime();
+        metrics.entered(enteredNanos - requestStartNanos);
+        trace.record(enterEvent(), TraceRecorder.NO_PEER, requestTimestamp, logicalClock.get());
+        if (Logger.isEnabled(Logger.Level.INFO)) {
+            Logger.logNode(nodeId, Logger.Level.INFO, "*** ENTERED CRITICAL SECTION ***" + (requestShared ? " (shared)" : "") + " [timestamp:" + logicalClock.get() + "]");
+        }
+    }
+    
+    private TraceRecorder.Event enterEvent() {
+        return requestShared ? TraceRecorder.Event.ENTER_SHARED : TraceRecorder.Event.ENTER;
+    }
+    
+    public void releaseCriticalSection() {
+        lock.lock();
         try {
-            Thread.sleep(Config.getRandomWorkTime());
+            if (state != State.HELD) {
+                throw new IllegalStateException("Node " + nodeId + " is not in the critical section");
+            }
             
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            if (Logger.isEnabled(Logger.Level.INFO)) {
+                Logger.logNode(nodeId, Logger.Level.INFO, "*** EXITED CRITICAL SECTION *** [timestamp:" + logicalClock.get() + "]");
+            }
+            long now = System.nanoTime();
+            metrics.exited(now - enteredNanos);
+            trace.record(TraceRecorder.Event.EXIT, TraceRecorder.NO_PEER, requestTimestamp, logicalClock.get());
+            
+            // Hand the section to the next local waiter while we still hold every permission. Once peers
+            // are waiting, only handoffBudget times in a row, then they get their turn first. Permissions
+            // collected for a reader are not enough for a writer.
+            Waiter next = localWaiters.peek();
+            if (next != null && (!requestShared || next.shared) && handoffBudget > 0 && (handoffs < handoffBudget || !hasWaitingPeers())) {
+                localWaiters.poll();
+                handoffs++;
+                next.granted = true;
+                enteredNanos = now;
+                metrics.handedOff();
+                // A handed-over entry belongs to no request of its own
+                trace.record(enterEvent(), TraceRecorder.NO_PEER, 0, logicalClock.get());
+                next.turn.signal();
+                return;
+            }
+            
+            // Flushing the deferred replies is the whole release: no peer holds a reply back for a request
+            // that has just entered, so there is nothing more to tell anyone
+            leaveCriticalSection();
         } finally {
-            exitCriticalSection();
+            lock.unlock();
         }
     }
     
-    private void exitCriticalSection() {
+    private void onRequestDelivered(long timestamp, Broadcaster.Result result) {
+        logFailures("request", result);
+        if (result.allDelivered()) {
+            return;
+        }
+        
         lock.lock();
         try {
-            state = State.RELEASED;
-            Logger.logNode(nodeId, Logger.Level.INFO, "*** EXITED CRITICAL SECTION *** [timestamp:" + logicalClock.get() + "]");
-            
-            for (Node node : otherNodes) {
-                try {
-                    node.release(nodeId);
-                } catch (RemoteException e) {
-                    Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send release to node");
-                }
+            if (state == State.REQUESTING && requestTimestamp == timestamp) {
+                requestFailed = true;
+                repliesComplete.signalAll();
             }
-            
         } finally {
             lock.unlock();
         }
     }
     
+    // Abandon the current request (lock held). Peers that have not replied yet get a release so they
+    // drop the request from their deferred sets instead of answering it later.
+    private void cancelRequest() {
+        trace.record(TraceRecorder.Event.ABANDON, TraceRecorder.NO_PEER, requestTimestamp, logicalClock.get());
+        for (int slot = pendingReplies.nextId(0); slot >= 0; slot = pendingReplies.nextId(slot + 1)) {
+            sendRelease(peerSlots.idAt(slot));
+        }
+        pendingReplies.clear();
+        leaveCriticalSection();
+    }
+    
+    // Back to RELEASED (lock held): replies deferred while requesting or holding are owed now
+    private void leaveCriticalSection() {
+        state = State.RELEASED;
+        for (int slot = deferredReplies.nextId(0); slot >= 0; slot = deferredReplies.nextId(slot + 1)) {
+            sendReply(peerSlots.idAt(slot), deferredReplies.timestamp(slot));
+        }
+        deferredReplies.clear();
+        if (engine != null) {
+            engine.release();
+        }
+        
+        // The first local waiter runs the next round
+        Waiter next = localWaiters.peek();
+        if (next != null) {
+            next.turn.signal();
+        }
+    }
+    
+    // A waiter gave up (lock held). If it was first in line for a released node, the next one takes its place.
+    private void leaveQueue(Waiter waiter) {
+        boolean wasHead = localWaiters.peek() == waiter;
+        localWaiters.remove(waiter);
+        Waiter next = localWaiters.peek();
+        if (wasHead && next != null && state == State.RELEASED) {
+            next.turn.signal();
+        }
+    }
+    
+    // Wait on condition until signalled or the deadline passes; false once the deadline has passed
+    private boolean await(Condition condition, long deadline) throws InterruptedException {
+        if (deadline == Long.MAX_VALUE) {
+            condition.await();
+            return true;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            return false;
+        }
+        condition.awaitNanos(remaining);
+        return true;
+    }
+    
+    private void logFailures(String message, Broadcaster.Result result) {
+        for (Throwable failure : result.getFailures().values()) {
+            Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send " + message + " to node: " + failure.getMessage());
+        }
+    }
+    
     // Update logical clock to maintain event ordering
     private void updateLogicalClock(long receivedTimestamp) {
         long currentClock = logicalClock.get();
@@ -244,38 +775,220 @@ public class NodeImpl implements Node {
         return logicalClock.get();
     }
     
+    // Named locks coordinated with the same peers, independent of this node's own critical section
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+    
+    public NodeMetrics getMetrics() {
+        return metrics;
+    }
+    
+    public TraceRecorder getTrace() {
+        return trace;
+    }
+    
+    // Lock-style access to this node's critical section for application code
+    public DistributedMutex getMutex() {
+        return mutex;
+    }
+    
+    // The same critical section entered as a reader: readers on different nodes hold it together
+    public DistributedMutex getSharedMutex() {
+        return sharedMutex;
+    }
+    
     public State getState() {
         return state;
     }
     
-    public void updateOtherNodes(List<Node> otherNodes) {
-        this.otherNodes.clear();
-        this.otherNodes.addAll(otherNodes);
+    // Replace the whole peer table; channels of peers whose stub is unchanged are kept
+    public void updateOtherNodes(Map<Integer, Node> otherNodes) {
+        for (Map.Entry<Integer, Node> entry : otherNodes.entrySet()) {
+            peers.put(entry.getKey(), entry.getValue());
+        }
+        for (Integer peerId : peers.ids()) {
+            if (!otherNodes.containsKey(peerId)) {
+                removePeer(peerId);
+            }
+        }
     }
     
-    private Thread simulationThread;
+    // Add a peer or replace its stub; returns false if it was already known with the same stub
+    public boolean addPeer(int peerId, Node node) {
+        return peers.put(peerId, node);
+    }
     
-    public void startSimulation() {
-        simulationThread = new Thread(() -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    int delay = Config.getRandomRequestDelay();
-                    Thread.sleep(delay);
-                    
-                    requestCriticalSection();
-                    
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
+    public boolean removePeer(int peerId) {
+        if (!peers.remove(peerId)) {
+            return false;
+        }
+        lock.lock();
+        try {
+            // Clear everything kept in the peer's slot before the slot goes to another peer
+            int slot = peerSlots.slotOf(peerId);
+            if (slot >= 0) {
+                deferredReplies.remove(slot);
+                stopWaitingFor(slot);
+                suspected.remove(slot);
+                authorized.remove(slot);
+                peerSlots.remove(peerId);
+            }
+            if (engine != null) {
+                engine.peerLeft(peerId);
+            }
+        } finally {
+            lock.unlock();
+        }
+        lockManager.peerLeft(peerId);
+        return true;
+    }
+
+    // Slot of a peer in the table, assigning one if needed, or -1 for an id that is not (or no longer) a peer:
+    // removePeer only frees slots of peers it removes, so a slot given to any other id would never be freed.
+    // Checked under the lock, which removePeer takes after dropping the peer from the table (lock held)
+    private int peerSlot(int peerId) {
+        return peers.get(peerId) != null ? peerSlots.add(peerId) : -1;
+    }
+
+    // Watch peers with heartbeats; a suspected peer no longer holds up requests
+    public void startFailureDetector(long heartbeatIntervalMs, double phiThreshold) {
+        failureDetector = new FailureDetector(nodeId, peers, new FailureDetector.Listener() {
+            @Override
+            public void suspected(int peerId, double phi) {
+                onPeerSuspected(peerId, phi);
+            }
+            
+            @Override
+            public void recovered(int peerId) {
+                onPeerRecovered(peerId);
+            }
+            
+            @Override
+            public void paused(long pauseMs) {
+                onPaused();
+            }
+        }, heartbeatIntervalMs, phiThreshold);
+        failureDetector.start();
+    }
+    
+    public void stopFailureDetector() {
+        if (failureDetector != null) {
+            failureDetector.stop();
+        }
+    }
+    
+    private void onPeerSuspected(int peerId, double phi) {
+        lock.lock();
+        try {
+            // Already removed: keeping the mark would outlive the peer and catch it if it rejoins
+            int slot = peerSlot(peerId);
+            if (slot < 0) {
+                return;
+            }
+            if (Logger.isEnabled(Logger.Level.ERROR)) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Node " + peerId + " suspected to have failed [phi:"
+                    + String.format(Locale.ROOT, "%.1f", phi) + "], no longer waiting for it");
+            }
+            // The peer most likely suspects us as well and enters without asking, so a permission it
+            // gave us earlier no longer excludes it
+            suspected.add(slot);
+            authorized.remove(slot);
+            stopWaitingFor(slot);
+            if (engine != null) {
+                engine.peerSuspected(peerId);
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Named resources keep their own requests, under their own locks
+        lockManager.peerSuspected(peerId);
+    }
+    
+    private void onPeerRecovered(int peerId) {
+        lock.lock();
+        try {
+            if (Logger.isEnabled(Logger.Level.INFO)) {
+                Logger.logNode(nodeId, Logger.Level.INFO, "Node " + peerId + " is responding again");
+            }
+            markAlive(peerId);
+        } finally {
+            lock.unlock();
+        }
+        lockManager.peerRecovered(peerId);
+    }
+    
+    // A suspected peer turned out to be alive (lock held). The current request skipped it or stopped waiting
+    // for it; the peer may be about to enter on our reply, so its permission is needed after all.
+    private boolean markAlive(int peerId) {
+        int slot = peerSlots.slotOf(peerId);
+        if (slot < 0 || !suspected.remove(slot)) {
+            return false;
+        }
+        if (engine != null) {
+            engine.peerRecovered(peerId);
+        } else if (state == State.REQUESTING) {
+            askAgain(peerId);
+        }
+        return true;
+    }
+    
+    // This process was paused long enough for peers to suspect it and enter without it: no
+    // permission kept from before can be trusted, and replies already in for a request are asked for again
+    private void onPaused() {
+        lock.lock();
+        try {
+            authorized.clear();
+            if (engine == null && state == State.REQUESTING) {
+                for (PeerChannel channel : peers.snapshot()) {
+                    int slot = peerSlots.slotOf(channel.getPeerId());
+                    if (slot >= 0 && !suspected.contains(slot)) {
+                        askAgain(channel.getPeerId());
+                    }
                 }
             }
-        });
-        simulationThread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // A peer that left or is suspected (lock held): the current request stops counting on its reply.
+    // A reply deferred for a suspected peer is still sent on exit, in case the suspicion is wrong.
+    private void stopWaitingFor(int slot) {
+        if (state == State.REQUESTING && pendingReplies.remove(slot) && pendingReplies.isEmpty()) {
+            repliesComplete.signalAll();
+        }
+    }
+    
+    public boolean hasPeer(int peerId, Node node) {
+        return peers.contains(peerId, node);
+    }
+    
+    public Set<Integer> getPeerIds() {
+        return peers.ids();
     }
     
-    public void stopSimulation() {
-        if (simulationThread != null) {
-            simulationThread.interrupt();
+    // Number of messages waiting in each peer's outbound queue, keyed by peer node id
+    public Map<Integer, Integer> getQueueDepths() {
+        Map<Integer, Integer> depths = new TreeMap<>();
+        for (PeerChannel channel : peers.snapshot()) {
+            depths.put(channel.getPeerId(), channel.getQueueDepth());
+        }
+        return depths;
+    }
+    
+    // A local thread queued for the critical section (guarded by the node lock)
+    private static class Waiter {
+        
+        private final Condition turn;
+        private final long since;
+        private final boolean shared;
+        private boolean granted;
+        
+        private Waiter(Condition turn, long since, boolean shared) {
+            this.turn = turn;
+            this.since = since;
+            this.shared = shared;
         }
     }
 }
\ No newline at end of file
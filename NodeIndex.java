@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * Dense slot numbers for node ids, so per-peer state can live in bitsets and arrays sized by the
+ * number of peers instead of by the largest id. Ids may be any non-negative int; a freed slot is
+ * handed to the next id added. Lookups probe an open-addressing table of ints and never allocate.
+ * Not thread-safe: callers guard it with their own lock.
+ */
+public class NodeIndex {
+
+    private static final int EMPTY = -1;
+
+    // Hash table from id to slot, kept at most half full
+    private int[] keys;
+    private int[] slots;
+    private int size;
+
+    // Id holding each slot (EMPTY if free) and the free slots below nextSlot
+    private int[] ids;
+    private int[] freeSlots;
+    private int freeCount;
+    private int nextSlot;
+
+    public NodeIndex() {
+        this(16);
+    }
+
+    public NodeIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        this.keys = new int[capacity];
+        this.slots = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        this.ids = new int[Math.max(4, expectedSize)];
+        Arrays.fill(ids, EMPTY);
+        this.freeSlots = new int[ids.length];
+    }
+
+    // Slot of id, or -1 if it has none
+    public int slotOf(int id) {
+        if (id < 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == id) {
+                return slots[i];
+            }
+            if (keys[i] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    // Slot of id, assigning one if it has none yet
+    public int add(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Node id must not be negative: " + id);
+        }
+        int mask = keys.length - 1;
+        int i = hash(id) & mask;
+        while (keys[i] != EMPTY) {
+            if (keys[i] == id) {
+                return slots[i];
+            }
+            i = (i + 1) & mask;
+        }
+
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot++;
+        if (slot >= ids.length) {
+            int length = ids.length;
+            ids = Arrays.copyOf(ids, length * 2);
+            Arrays.fill(ids, length, ids.length, EMPTY);
+            freeSlots = Arrays.copyOf(freeSlots, ids.length);
+        }
+        ids[slot] = id;
+        keys[i] = id;
+        slots[i] = slot;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return slot;
+    }
+
+    // Free the slot of id; returns it, or -1 if id had none
+    public int remove(int id) {
+        if (id < 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int i = hash(id) & mask;
+        while (keys[i] != id) {
+            if (keys[i] == EMPTY) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+
+        int slot = slots[i];
+        ids[slot] = EMPTY;
+        freeSlots[freeCount++] = slot;
+        size--;
+
+        // Shift later entries of the probe run back into the gap, so lookups never need tombstones
+        int gap = i;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                slots[gap] = slots[j];
+                gap = j;
+            }
+        }
+        keys[gap] = EMPTY;
+        return slot;
+    }
+
+    // Id holding slot, or -1 if the slot is free
+    public int idAt(int slot) {
+        return slot >= 0 && slot < ids.length ? ids[slot] : EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new int[capacity];
+        slots = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        int mask = capacity - 1;
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldKeys[k] != EMPTY) {
+                int i = hash(oldKeys[k]) & mask;
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[k];
+                slots[i] = oldSlots[k];
+            }
+        }
+    }
+
+    // Spread consecutive and strided ids over the table
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
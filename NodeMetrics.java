@@ -0,0 +1,419 @@
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Message counters and latency histograms of one node. Updated from the node's handlers
+ * (often under the node lock), so every recorder is lock-free; snapshot() gives a copy for reporting.
+ */
+public class NodeMetrics {
+
+    public enum Message {
+        REQUEST, REPLY, RELEASE, INQUIRE, YIELD, FAILED, TOKEN, PROBE
+    }
+
+    private final int nodeId;
+    private final LongAdder[] sent;
+    private final LongAdder[] received;
+    private final LongAdder entries;
+    private final LongAdder handoffs;
+    private final LongAdder deferrals;
+    private final LongAdder timeouts;
+    private final LongAdder failures;
+    private final LatencyHistogram waitToEnter;
+    private final LatencyHistogram timeInCriticalSection;
+    private final LatencyHistogram replyRoundTrip;
+    
+    // A histogram per peer would cost ~4 KB each, too much with hundreds of peers; per peer only count, total and max
+    private final Map<Integer, PeerRecorder> replyRoundTripByPeer;
+    
+    // Messages waiting in each peer's outbound channel, read when a snapshot is taken
+    private final Supplier<Map<Integer, Integer>> queueDepths;
+
+    public NodeMetrics(int nodeId, Supplier<Map<Integer, Integer>> queueDepths) {
+        this.nodeId = nodeId;
+        this.queueDepths = queueDepths;
+        this.sent = newCounters();
+        this.received = newCounters();
+        this.entries = new LongAdder();
+        this.handoffs = new LongAdder();
+        this.deferrals = new LongAdder();
+        this.timeouts = new LongAdder();
+        this.failures = new LongAdder();
+        this.waitToEnter = new LatencyHistogram();
+        this.timeInCriticalSection = new LatencyHistogram();
+        this.replyRoundTrip = new LatencyHistogram();
+        this.replyRoundTripByPeer = new ConcurrentHashMap<>();
+    }
+
+    public void sent(Message type, int count) {
+        sent[type.ordinal()].add(count);
+    }
+
+    public void received(Message type) {
+        received[type.ordinal()].increment();
+    }
+
+    public void deferred() {
+        deferrals.increment();
+    }
+
+    public void timedOut() {
+        timeouts.increment();
+    }
+
+    public void requestFailed() {
+        failures.increment();
+    }
+
+    public void entered(long waitNanos) {
+        entries.increment();
+        waitToEnter.record(waitNanos);
+    }
+
+    // An entry handed over by a local thread instead of won with a round of messages
+    public void handedOff() {
+        handoffs.increment();
+    }
+
+    public void exited(long heldNanos) {
+        timeInCriticalSection.record(heldNanos);
+    }
+
+    // From sending the request to receiving the reply, including any time the peer deferred it
+    public void replyReceived(int peerId, long roundTripNanos) {
+        replyRoundTrip.record(roundTripNanos);
+        replyRoundTripByPeer.computeIfAbsent(peerId, id -> new PeerRecorder()).record(roundTripNanos);
+    }
+
+    public Snapshot snapshot() {
+        Map<Integer, PeerRoundTrip> roundTrips = new TreeMap<>();
+        for (Map.Entry<Integer, PeerRecorder> entry : replyRoundTripByPeer.entrySet()) {
+            roundTrips.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(nodeId, System.currentTimeMillis(), sums(sent), sums(received),
+            entries.sum(), handoffs.sum(), deferrals.sum(), timeouts.sum(), failures.sum(),
+            waitToEnter.snapshot(), timeInCriticalSection.snapshot(), replyRoundTrip.snapshot(), roundTrips,
+            new TreeMap<>(queueDepths.get()));
+    }
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[Message.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    private static long[] sums(LongAdder[] counters) {
+        long[] values = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            values[i] = counters[i].sum();
+        }
+        return values;
+    }
+
+    // One per peer that ever replied, so N^2 of them in a simulated cluster: plain fields, written under the
+    // node lock and volatile so a snapshot on another thread reads current values
+    private static class PeerRecorder {
+
+        private volatile long count;
+        private volatile long total;
+        private volatile long max;
+
+        private void record(long nanos) {
+            count = count + 1;
+            total = total + nanos;
+            max = Math.max(max, nanos);
+        }
+
+        private PeerRoundTrip snapshot() {
+            return new PeerRoundTrip(count, total, max);
+        }
+    }
+
+    /**
+     * Reply round trips to one peer, in nanoseconds.
+     */
+    public static class PeerRoundTrip {
+
+        private final long count;
+        private final long total;
+        private final long max;
+
+        private PeerRoundTrip(long count, long total, long max) {
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+    }
+
+    /**
+     * Metrics of one node at one point in time. Durations are reported in microseconds.
+     */
+    public static class Snapshot {
+
+        private final int nodeId;
+        private final long timeMillis;
+        private final long[] sent;
+        private final long[] received;
+        private final long entries;
+        private final long handoffs;
+        private final long deferrals;
+        private final long timeouts;
+        private final long failures;
+        private final LatencyHistogram.Snapshot waitToEnter;
+        private final LatencyHistogram.Snapshot timeInCriticalSection;
+        private final LatencyHistogram.Snapshot replyRoundTrip;
+        private final Map<Integer, PeerRoundTrip> replyRoundTripByPeer;
+        private final Map<Integer, Integer> queueDepths;
+
+        private Snapshot(int nodeId, long timeMillis, long[] sent, long[] received, long entries, long handoffs, long deferrals,
+                         long timeouts, long failures, LatencyHistogram.Snapshot waitToEnter,
+                         LatencyHistogram.Snapshot timeInCriticalSection, LatencyHistogram.Snapshot replyRoundTrip,
+                         Map<Integer, PeerRoundTrip> replyRoundTripByPeer, Map<Integer, Integer> queueDepths) {
+            this.nodeId = nodeId;
+            this.timeMillis = timeMillis;
+            this.sent = sent;
+            this.received = received;
+            this.entries = entries;
+            this.handoffs = handoffs;
+            this.deferrals = deferrals;
+            this.timeouts = timeouts;
+            this.failures = failures;
+            this.waitToEnter = waitToEnter;
+            this.timeInCriticalSection = timeInCriticalSection;
+            this.replyRoundTrip = replyRoundTrip;
+            this.replyRoundTripByPeer = replyRoundTripByPeer;
+            this.queueDepths = queueDepths;
+        }
+
+        public int getNodeId() {
+            return nodeId;
+        }
+
+        public long getSent(Message type) {
+            return sent[type.ordinal()];
+        }
+
+        public long getReceived(Message type) {
+            return received[type.ordinal()];
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        public long getHandoffs() {
+            return handoffs;
+        }
+
+        public long getDeferrals() {
+            return deferrals;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public LatencyHistogram.Snapshot getWaitToEnter() {
+            return waitToEnter;
+        }
+
+        public LatencyHistogram.Snapshot getTimeInCriticalSection() {
+            return timeInCriticalSection;
+        }
+
+        public LatencyHistogram.Snapshot getReplyRoundTrip() {
+            return replyRoundTrip;
+        }
+
+        public Map<Integer, PeerRoundTrip> getReplyRoundTripByPeer() {
+            return replyRoundTripByPeer;
+        }
+
+        // Outbound queue depth per peer when the snapshot was taken
+        public Map<Integer, Integer> getQueueDepths() {
+            return queueDepths;
+        }
+
+        public int getQueued() {
+            int queued = 0;
+            for (int depth : queueDepths.values()) {
+                queued += depth;
+            }
+            return queued;
+        }
+
+        // Peer with the deepest outbound queue, or -1 if every queue is empty
+        public int getDeepestQueuePeer() {
+            int deepest = -1;
+            int max = 0;
+            for (Map.Entry<Integer, Integer> entry : queueDepths.entrySet()) {
+                if (entry.getValue() > max) {
+                    deepest = entry.getKey();
+                    max = entry.getValue();
+                }
+            }
+            return deepest;
+        }
+
+        // Messages of every type this node sent, per entry. Each node sends its requests and answers the
+        // others', so under an even load this is the cost of one entry: 2(N-1) for Ricart-Agrawala
+        public double getMessagesPerEntry() {
+            long total = 0;
+            for (long count : sent) {
+                total += count;
+            }
+            return entries == 0 ? 0 : (double) total / entries;
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder(512);
+            json.append("{\"node\":").append(nodeId)
+                .append(",\"time\":").append(timeMillis)
+                .append(",\"sent\":");
+            appendCounts(json, sent);
+            json.append(",\"received\":");
+            appendCounts(json, received);
+            json.append(",\"entries\":").append(entries)
+                .append(",\"handoffs\":").append(handoffs)
+                .append(",\"deferrals\":").append(deferrals)
+                .append(",\"timeouts\":").append(timeouts)
+                .append(",\"failures\":").append(failures)
+                .append(",\"messagesPerEntry\":").append(format(getMessagesPerEntry()))
+                .append(",\"waitToEnterUs\":");
+            appendHistogram(json, waitToEnter);
+            json.append(",\"timeInCriticalSectionUs\":");
+            appendHistogram(json, timeInCriticalSection);
+            json.append(",\"replyRoundTripUs\":");
+            appendHistogram(json, replyRoundTrip);
+            // Only peers with something queued, as most queues are empty most of the time
+            json.append(",\"queued\":").append(getQueued()).append(",\"queueDepths\":{");
+            boolean firstQueue = true;
+            for (Map.Entry<Integer, Integer> entry : queueDepths.entrySet()) {
+                if (entry.getValue() > 0) {
+                    if (!firstQueue) {
+                        json.append(',');
+                    }
+                    firstQueue = false;
+                    json.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+                }
+            }
+            json.append('}');
+            json.append(",\"replyRoundTripByPeerUs\":{");
+            boolean first = true;
+            for (Map.Entry<Integer, PeerRoundTrip> entry : replyRoundTripByPeer.entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                PeerRoundTrip peer = entry.getValue();
+                json.append('"').append(entry.getKey()).append("\":{\"count\":").append(peer.getCount())
+                    .append(",\"mean\":").append(format(micros(peer.getMean())))
+                    .append(",\"max\":").append(micros(peer.getMax())).append('}');
+            }
+            return json.append("}}").toString();
+        }
+
+        public String toText() {
+            StringBuilder text = new StringBuilder(256);
+            text.append("Node ").append(nodeId).append('\n');
+            appendTextCounts(text.append("  sent     "), sent);
+            appendTextCounts(text.append("  received "), received);
+            text.append("  entries=").append(entries)
+                .append(" handoffs=").append(handoffs)
+                .append(" deferrals=").append(deferrals)
+                .append(" timeouts=").append(timeouts)
+                .append(" failures=").append(failures)
+                .append(" messages/entry=").append(format(getMessagesPerEntry())).append('\n')
+                .append("  outbound queued=").append(getQueued());
+            int deepest = getDeepestQueuePeer();
+            if (deepest >= 0) {
+                text.append(" (deepest ").append(queueDepths.get(deepest)).append(" to Node ").append(deepest).append(')');
+            }
+            text.append('\n')
+                .append("  wait to enter (us)   ").append(summary(waitToEnter)).append('\n')
+                .append("  time in CS (us)      ").append(summary(timeInCriticalSection)).append('\n')
+                .append("  reply RTT (us)       ").append(summary(replyRoundTrip)).append('\n');
+            for (Map.Entry<Integer, PeerRoundTrip> entry : replyRoundTripByPeer.entrySet()) {
+                PeerRoundTrip peer = entry.getValue();
+                text.append("  reply RTT Node ").append(entry.getKey()).append(" (us) count=").append(peer.getCount())
+                    .append(" mean=").append(format(micros(peer.getMean())))
+                    .append(" max=").append(micros(peer.getMax())).append('\n');
+            }
+            return text.toString();
+        }
+
+        // Types no node has used yet (e.g. the Maekawa ones under Ricart-Agrawala) are left out
+        private static void appendTextCounts(StringBuilder text, long[] counts) {
+            for (Message type : Message.values()) {
+                if (type.ordinal() <= Message.RELEASE.ordinal() || counts[type.ordinal()] > 0) {
+                    text.append(' ').append(type.name().toLowerCase(Locale.ROOT)).append('=').append(counts[type.ordinal()]);
+                }
+            }
+            text.append('\n');
+        }
+
+        private static void appendCounts(StringBuilder json, long[] counts) {
+            json.append('{');
+            for (Message type : Message.values()) {
+                if (type.ordinal() > 0) {
+                    json.append(',');
+                }
+                json.append('"').append(type.name().toLowerCase(Locale.ROOT)).append("\":").append(counts[type.ordinal()]);
+            }
+            json.append('}');
+        }
+
+        private static void appendHistogram(StringBuilder json, LatencyHistogram.Snapshot histogram) {
+            json.append("{\"count\":").append(histogram.getCount())
+                .append(",\"mean\":").append(format(micros(histogram.getMean())))
+                .append(",\"p50\":").append(micros(histogram.getPercentile(50)))
+                .append(",\"p90\":").append(micros(histogram.getPercentile(90)))
+                .append(",\"p99\":").append(micros(histogram.getPercentile(99)))
+                .append(",\"max\":").append(micros(histogram.getMax()))
+                .append('}');
+        }
+
+        private static String summary(LatencyHistogram.Snapshot histogram) {
+            return "count=" + histogram.getCount()
+                + " mean=" + format(micros(histogram.getMean()))
+                + " p50=" + micros(histogram.getPercentile(50))
+                + " p99=" + micros(histogram.getPercentile(99))
+                + " max=" + micros(histogram.getMax());
+        }
+
+        private static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+
+        private static double micros(double nanos) {
+            return nanos / 1000.0;
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.ROOT, "%.2f", value);
+        }
+    }
+}
@@ -12,4 +12,11 @@ public interface NodeRegistry extends Remote {
     Node getNode(int nodeId) throws RemoteException;
     List<Integer> getRegisteredNodeIds() throws RemoteException;
     boolean isNodeRegistered(int nodeId) throws RemoteException;
+    
+    // All ids and stubs in one call; null if the membership is still at knownVersion
+    MembershipSnapshot getMembership(long knownVersion) throws RemoteException;
+    
+    // Long poll: returns as soon as membership differs from sinceVersion (0 = nothing known yet),
+    // or an empty delta after timeoutMs. Callers loop, passing back the version they got.
+    MembershipDelta awaitMembershipChange(long sinceVersion, long timeoutMs) throws RemoteException;
 }
@@ -1,45 +1,162 @@
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Implementation of custom NodeRegistry that allows remote node registration
+ * Implementation of custom NodeRegistry that allows remote node registration.
+ * Membership is an immutable MembershipSnapshot replaced on every change, so lookups never lock and
+ * return shared data. Every change also gets a version; nodes long-poll for the changes since the
+ * version they last saw.
  */
 public class NodeRegistryImpl extends UnicastRemoteObject implements NodeRegistry {
-    private final Map<Integer, Node> nodes;
+    
+    // Changes kept for delta replies; a caller further behind gets the full membership instead
+    private static final int MAX_CHANGES = 1024;
+    
+    // Written under lock, read without it
+    private volatile MembershipSnapshot membership;
+    
+    // Serializes writers and long polls; readers of membership never take it
+    private final ReentrantLock lock;
+    private final Condition changed;
+    private final ArrayDeque<Change> changes;
     
     public NodeRegistryImpl() throws RemoteException {
         super();
-        this.nodes = new ConcurrentHashMap<>();
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
+        this.changes = new ArrayDeque<>();
+        // Versions start at the creation time, so versions handed out by an earlier registry instance
+        // look stale to this one and those callers get the full membership
+        this.membership = new MembershipSnapshot(System.currentTimeMillis(), new HashMap<>());
     }
     
     @Override
-    public synchronized void registerNode(int nodeId, Node node) throws RemoteException {
-        nodes.put(nodeId, node);
+    public void registerNode(int nodeId, Node node) throws RemoteException {
+        lock.lock();
+        try {
+            record(nodeId, node);
+        } finally {
+            lock.unlock();
+        }
         Logger.info("Node " + nodeId + " registered successfully");
     }
     
     @Override
-    public synchronized void unregisterNode(int nodeId) throws RemoteException {
-        nodes.remove(nodeId);
+    public void unregisterNode(int nodeId) throws RemoteException {
+        lock.lock();
+        try {
+            if (!membership.contains(nodeId)) {
+                return;
+            }
+            record(nodeId, null);
+        } finally {
+            lock.unlock();
+        }
         Logger.info("Node " + nodeId + " unregistered");
     }
     
     @Override
     public Node getNode(int nodeId) throws RemoteException {
-        return nodes.get(nodeId);
+        return membership.getNode(nodeId);
     }
     
     @Override
     public List<Integer> getRegisteredNodeIds() throws RemoteException {
-        return new ArrayList<>(nodes.keySet());
+        return membership.getNodeIds();
     }
     
     @Override
     public boolean isNodeRegistered(int nodeId) throws RemoteException {
-        return nodes.containsKey(nodeId);
+        return membership.contains(nodeId);
+    }
+    
+    @Override
+    public MembershipSnapshot getMembership(long knownVersion) throws RemoteException {
+        MembershipSnapshot current = membership;
+        return current.getVersion() == knownVersion ? null : current;
+    }
+    
+    @Override
+    public MembershipDelta awaitMembershipChange(long sinceVersion, long timeoutMs) throws RemoteException {
+        // Nothing to wait for: answer without touching the lock
+        if (timeoutMs <= 0 && membership.getVersion() == sinceVersion) {
+            return MembershipDelta.unchanged(sinceVersion);
+        }
+        
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (membership.getVersion() == sinceVersion && remaining > 0) {
+                remaining = changed.awaitNanos(remaining);
+            }
+            return deltaSince(sinceVersion);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return deltaSince(sinceVersion);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Lock held
+    private void record(int nodeId, Node node) {
+        long version = membership.getVersion() + 1;
+        membership = membership.with(version, nodeId, node);
+        changes.addLast(new Change(version, nodeId, node));
+        if (changes.size() > MAX_CHANGES) {
+            changes.removeFirst();
+        }
+        changed.signalAll();
+    }
+    
+    // Lock held. Several changes to the same node collapse into the last one.
+    private MembershipDelta deltaSince(long sinceVersion) {
+        MembershipSnapshot current = membership;
+        long version = current.getVersion();
+        if (sinceVersion == version) {
+            return MembershipDelta.unchanged(version);
+        }
+        
+        boolean covered = !changes.isEmpty() && sinceVersion >= changes.peekFirst().version - 1 && sinceVersion < version;
+        if (!covered) {
+            return new MembershipDelta(version, true, current.getNodes(), new HashSet<>());
+        }
+        
+        Map<Integer, Node> joined = new HashMap<>();
+        Set<Integer> left = new HashSet<>();
+        for (Change change : changes) {
+            if (change.version <= sinceVersion) {
+                continue;
+            }
+            if (change.node != null) {
+                joined.put(change.nodeId, change.node);
+                left.remove(change.nodeId);
+            } else {
+                joined.remove(change.nodeId);
+                left.add(change.nodeId);
+            }
+        }
+        return new MembershipDelta(version, false, joined, left);
+    }
+    
+    private static class Change {
+        private final long version;
+        private final int nodeId;
+        private final Node node;  // null when the node left
+        
+        private Change(long version, int nodeId, Node node) {
+            this.version = version;
+            this.nodeId = nodeId;
+            this.node = node;
+        }
     }
 }
@@ -0,0 +1,115 @@
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Outbound message queue for a single peer.
+ * Callers only enqueue; the remote calls are made by one sender per peer, in FIFO order,
+ * so a slow or unreachable peer never stalls the caller or the other peers.
+ */
+public class PeerChannel {
+
+    @FunctionalInterface
+    public interface Message {
+        void deliver(Node peer) throws RemoteException;
+    }
+
+    private final int peerId;
+    private final Node peer;
+    private final Executor senders;
+    private final ConcurrentLinkedQueue<Envelope> queue;
+    private final AtomicBoolean draining;
+    private volatile boolean closed;
+
+    // Senders of all channels in the process share the application executor; at most one task per channel
+    // runs at a time, and a sender blocked on a slow peer parks a virtual thread where the runtime has them
+    public PeerChannel(int peerId, Node peer) {
+        this(peerId, peer, Threads.executor());
+    }
+
+    public PeerChannel(int peerId, Node peer, Executor senders) {
+        this.peerId = peerId;
+        this.peer = peer;
+        this.senders = senders;
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.draining = new AtomicBoolean(false);
+    }
+
+    // Queue a message for delivery; the returned future completes once the remote call has returned or failed
+    public CompletableFuture<Void> send(Message message) {
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        if (closed) {
+            completion.completeExceptionally(new RemoteException("Channel to Node " + peerId + " is closed"));
+            return completion;
+        }
+
+        queue.add(new Envelope(message, completion));
+
+        if (draining.compareAndSet(false, true)) {
+            senders.execute(this::drain);
+        }
+        return completion;
+    }
+
+    private void drain() {
+        while (true) {
+            Envelope envelope;
+            while ((envelope = queue.poll()) != null) {
+                deliver(envelope);
+            }
+
+            draining.set(false);
+            // A message enqueued after the last poll but before the flag was cleared still needs a sender
+            if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void deliver(Envelope envelope) {
+        if (closed) {
+            envelope.completion.completeExceptionally(new RemoteException("Channel to Node " + peerId + " is closed"));
+            return;
+        }
+
+        try {
+            envelope.message.deliver(peer);
+            envelope.completion.complete(null);
+        } catch (Exception e) {
+            envelope.completion.completeExceptionally(e);
+        }
+    }
+
+    // Stop delivering; anything still queued fails instead of reaching the peer
+    public void close() {
+        closed = true;
+        if (draining.compareAndSet(false, true)) {
+            senders.execute(this::drain);
+        }
+    }
+
+    public int getPeerId() {
+        return peerId;
+    }
+
+    public Node getPeer() {
+        return peer;
+    }
+
+    // Walks the queue: meant for metrics snapshots, not for every send
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private static class Envelope {
+        private final Message message;
+        private final CompletableFuture<Void> completion;
+
+        private Envelope(Message message, CompletableFuture<Void> completion) {
+            this.message = message;
+            this.completion = completion;
+        }
+    }
+}
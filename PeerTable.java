@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Peers of a node keyed by node id.
+ * Ids come from the registry, so looking a peer up never needs a remote call.
+ */
+public class PeerTable {
+
+    private final Map<Integer, PeerChannel> channels;
+    private final Executor senders;
+
+    public PeerTable() {
+        this(Threads.executor());
+    }
+
+    // Channels of this table make their remote calls on senders
+    public PeerTable(Executor senders) {
+        this.channels = new ConcurrentHashMap<>();
+        this.senders = senders;
+    }
+
+    // Add or replace the peer with this id; returns false if the same stub was already present
+    public boolean put(int peerId, Node node) {
+        boolean[] changed = new boolean[1];
+        channels.compute(peerId, (id, existing) -> {
+            if (existing != null && existing.getPeer().equals(node)) {
+                return existing;
+            }
+            if (existing != null) {
+                existing.close();
+            }
+            changed[0] = true;
+            return new PeerChannel(id, node, senders);
+        });
+        return changed[0];
+    }
+
+    public boolean remove(int peerId) {
+        PeerChannel removed = channels.remove(peerId);
+        if (removed != null) {
+            removed.close();
+            return true;
+        }
+        return false;
+    }
+
+    public PeerChannel get(int peerId) {
+        return channels.get(peerId);
+    }
+
+    public boolean contains(int peerId, Node node) {
+        PeerChannel channel = channels.get(peerId);
+        return channel != null && channel.getPeer().equals(node);
+    }
+
+    public List<PeerChannel> snapshot() {
+        return new ArrayList<>(channels.values());
+    }
+
+    public Set<Integer> ids() {
+        return Set.copyOf(channels.keySet());
+    }
+
+    public int size() {
+        return channels.size();
+    }
+}
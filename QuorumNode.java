@@ -0,0 +1,26 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Messages of Maekawa's quorum algorithm (see MaekawaEngine). Every message carries the timestamp of the
+ * request it is about, so one that arrives after the request was abandoned is recognised and ignored.
+ */
+public interface QuorumNode extends Remote {
+
+    void quorumRequest(int requesterId, long timestamp) throws RemoteException;
+
+    // The voter's vote goes to this request
+    void grant(int voterId, long requestTimestamp) throws RemoteException;
+
+    // The voter has given its vote to an older request and asks whether this requester can give it back
+    void inquire(int voterId, long requestTimestamp) throws RemoteException;
+
+    // YIELD, the answer to inquire: the requester gives the vote back for now (yield is a reserved name in Java)
+    void relinquish(int requesterId, long requestTimestamp) throws RemoteException;
+
+    // The vote is held by, or promised to, an older request
+    void failed(int voterId, long requestTimestamp) throws RemoteException;
+
+    // The requester left the critical section or abandoned the request; the voter may vote again
+    void quorumRelease(int requesterId, long requestTimestamp) throws RemoteException;
+}
@@ -86,7 +86,7 @@ After (WORKING):
    2000      Node 0
    2001      Node 1
    2002      Node 2
-   ...       (up to Node 9)
+   ...       (up to Node 9; start_node.sh uses 2000 + node ID)
 
 ━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━
 
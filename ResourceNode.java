@@ -0,0 +1,16 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Messages of the multi-resource lock manager. Each one names the resource it is about,
+ * so independent resources are coordinated separately over the same set of nodes.
+ */
+public interface ResourceNode extends Remote {
+
+    void requestResource(String resource, int requesterId, long timestamp) throws RemoteException;
+
+    void replyResource(String resource, int replierId, int requesterId, long requestTimestamp) throws RemoteException;
+    
+    // Sent when a request is abandoned, so peers drop it instead of replying later
+    void releaseResource(String resource, int releaserId) throws RemoteException;
+}
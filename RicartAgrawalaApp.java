@@ -1,19 +1,39 @@
+import java.io.IOException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class RicartAgrawalaApp {
     
+    // Pause before polling again after a failed membership poll, and between probes of unreachable peers
+    private static final long MEMBERSHIP_RETRY_MS = 2000;
+    
+    // Connection probes of all nodes run on the shared executor instead of a thread per peer
+    private static final ExecutorService PROBES = Threads.executor();
+    
     private List<NodeImpl> nodes;
+    private List<NioTransport> transports;
+    private List<LocalTransport> localTransports;
+    private MetricsReporter metricsReporter;
+    private WorkloadDriver workloadDriver;
+    private List<Future<?>> membershipWatchers;
     private Registry registry;
     private NodeRegistry nodeRegistry;
     private boolean isRegistryServer = false;
     
     public RicartAgrawalaApp() {
         this.nodes = new ArrayList<>();
+        this.transports = new ArrayList<>();
+        this.localTransports = new ArrayList<>();
+        this.membershipWatchers = new ArrayList<>();
     }
     
     // Initialize or connect to RMI registry with custom NodeRegistry
@@ -63,18 +83,27 @@ public class RicartAgrawalaApp {
         Logger.info("Creating " + numNodes + " nodes...");
         
         // Create and register nodes
+        Map<Integer, Node> localStubs = new HashMap<>();
         for (int i = 0; i < numNodes; i++) {
-            NodeImpl node = new NodeImpl(i, new ArrayList<>(), numNodes);
+            NodeImpl node = new NodeImpl(i, new HashMap<>(), numNodes);
             nodes.add(node);
             
-            int port = Config.BASE_NODE_PORT + i;
+            // In-process nodes need neither a port nor the registry
+            if (Config.isLocalTransport()) {
+                LocalTransport transport = LocalTransport.start(node, i);
+                localTransports.add(transport);
+                localStubs.put(i, transport.getStub());
+                continue;
+            }
+            
+            // Any free port: RMI serves all nodes of the process on one, NIO gives each node its own
             try {
-                UnicastRemoteObject.exportObject(node, port);
+                Node stub = exportNode(node, i, 0);
                 
                 String nodeName = "Node" + i;
-                registry.rebind(nodeName, node);
+                registry.rebind(nodeName, stub);
                 
-                Logger.info("Created and registered " + nodeName + " on port " + port);
+                Logger.info("Created and registered " + nodeName);
             } catch (Exception e) {
                 Logger.error("Failed to export node " + i + ": " + e.getMessage());
                 throw e;
@@ -84,13 +113,12 @@ public class RicartAgrawalaApp {
         // Connect nodes to each other
         for (int i = 0; i < numNodes; i++) {
             NodeImpl currentNode = nodes.get(i);
-            List<Node> otherNodes = new ArrayList<>();
+            Map<Integer, Node> otherNodes = new HashMap<>();
             
             for (int j = 0; j < numNodes; j++) {
                 if (i != j) {
-                    String otherNodeName = "Node" + j;
-                    Node otherNode = (Node) registry.lookup(otherNodeName);
-                    otherNodes.add(otherNode);
+                    Node otherNode = Config.isLocalTransport() ? localStubs.get(j) : (Node) registry.lookup("Node" + j);
+                    otherNodes.put(j, otherNode);
                 }
             }
             
@@ -105,137 +133,166 @@ public class RicartAgrawalaApp {
         Logger.info("Creating single node " + nodeId + "...");
         
         // Create single node
-        NodeImpl node = new NodeImpl(nodeId, new ArrayList<>(), 10); // Assume max 10 nodes
+        NodeImpl node = new NodeImpl(nodeId, new HashMap<>());
         nodes.add(node);
         
-        int port = Config.BASE_NODE_PORT + nodeId;
+        int port = Config.NODE_PORT;
         try {
-            // Set RMI socket factory to use fixed port range
+            // Advertise an address peers on other machines can reach
             System.setProperty("java.rmi.server.hostname", System.getProperty("java.rmi.server.hostname", Config.LOCAL_HOST));
             
-            // Export the node locally with explicit port
-            Node stub = (Node) UnicastRemoteObject.exportObject(node, port);
+            // Export the node on the configured port, or any free one
+            Node stub = exportNode(node, nodeId, port);
             
             // Register with custom NodeRegistry instead of direct registry.rebind
             nodeRegistry.registerNode(nodeId, stub);
             
-            Logger.info("Created and registered Node " + nodeId + " on port " + port);
-            Logger.info("Node " + nodeId + " is accessible at " + System.getProperty("java.rmi.server.hostname") + ":" + port);
+            Logger.info("Created and registered Node " + nodeId + (port > 0 ? " on port " + port : " on a free port"));
+            Logger.info("Node " + nodeId + " is accessible at " + System.getProperty("java.rmi.server.hostname")
+                + (port > 0 ? ":" + port : ""));
         } catch (Exception e) {
             Logger.error("Failed to export node " + nodeId + ": " + e.getMessage());
             throw e;
         }
         
-        // Connect to other existing nodes
-        connectToOtherNodes(node, nodeId);
-        
-        // Start connection refresh thread
-        startConnectionRefreshThread(node, nodeId);
+        // Connect to the nodes already registered and follow membership changes from now on
+        startMembershipWatcher(node, nodeId);
     }
     
-    // Connect to other existing nodes with retry mechanism
-    private void connectToOtherNodes(NodeImpl node, int nodeId) {
-        List<Node> otherNodes = new ArrayList<>();
-        int connectedCount = 0;
-        
+    // Make the node reachable over the configured transport and return the stub peers should use
+    private Node exportNode(NodeImpl node, int nodeId, int port) throws Exception {
+        if (Config.isNioTransport()) {
+            String host = System.getProperty("java.rmi.server.hostname", Config.LOCAL_HOST);
+            NioTransport transport = NioTransport.start(node, nodeId, host, port);
+            transports.add(transport);
+            return transport.getStub();
+        }
+        return (Node) UnicastRemoteObject.exportObject(node, port);
+    }
+    
+    // Follow registry membership: the first call returns the full membership, every later long poll only
+    // what changed, and the peer table is updated incrementally. Returns once the first sync is done.
+    private void startMembershipWatcher(NodeImpl node, int nodeId) {
+        Map<Integer, Node> unreachable = new HashMap<>();
+        long version = 0;
         try {
-            // Get list of registered nodes from custom registry
-            List<Integer> registeredIds = nodeRegistry.getRegisteredNodeIds();
-            
-            Logger.debug("Found " + registeredIds.size() + " registered nodes");
-            
-            for (Integer otherId : registeredIds) {
-                if (otherId != nodeId) {
-                    // Quick check - don't block if node is unreachable
-                    Node otherNode = connectToNodeWithRetry(otherId, 3);  // Increased to 3 retries with shorter timeout
-                    if (otherNode != null) {
-                        otherNodes.add(otherNode);
-                        connectedCount++;
-                        Logger.debug("Successfully connected to Node " + otherId);
-                    } else {
-                        Logger.debug("Could not connect to Node " + otherId + " (may not be reachable yet)");
-                    }
-                }
-            }
+            version = syncMembership(node, nodeId, version, unreachable, true);
         } catch (Exception e) {
             Logger.debug("Error getting registered nodes: " + e.getMessage());
         }
         
-        node.updateOtherNodes(otherNodes);
-        
-        // Always log connection status
-        Logger.info("Node " + nodeId + " connected to " + connectedCount + " other node(s)");
-    }
-    
-    // Connect to a specific node with retry mechanism (with timeout)
-    private Node connectToNodeWithRetry(int targetNodeId, int maxRetries) {
-        for (int attempt = 1; attempt <= maxRetries; attempt++) {
-            try {
-                // Get node from custom registry
-                Node node = nodeRegistry.getNode(targetNodeId);
-                
-                if (node != null) {
-                    // Test the connection with timeout using a separate thread
-                    final Node finalNode = node;
-                    java.util.concurrent.FutureTask<Integer> future = new java.util.concurrent.FutureTask<>(() -> finalNode.getNodeId());
-                    Thread testThread = new Thread(future);
-                    testThread.setDaemon(true);
-                    testThread.start();
-                    
+        final long initialVersion = version;
+        membershipWatchers.add(Threads.start(() -> {
+            long knownVersion = initialVersion;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    knownVersion = syncMembership(node, nodeId, knownVersion, unreachable, false);
+                } catch (Exception e) {
+                    Logger.debug("Membership poll failed: " + e.getMessage());
                     try {
-                        // Wait max 2 seconds for connection test
-                        future.get(2, java.util.concurrent.TimeUnit.SECONDS);
-                        return node;  // Connection successful
-                    } catch (java.util.concurrent.TimeoutException te) {
-                        Logger.debug("Timeout connecting to Node " + targetNodeId + " (attempt " + attempt + "/" + maxRetries + ")");
-                        testThread.interrupt();
+                        Thread.sleep(MEMBERSHIP_RETRY_MS);
+                    } catch (InterruptedException ie) {
+                        break;
                     }
                 }
-            } catch (Exception e) {
-                Logger.debug("Attempt " + attempt + " to connect to Node " + targetNodeId + " failed: " + e.getMessage());
-            }
-            
-            // Wait before retry
-            if (attempt < maxRetries) {
-                try {
-                    Thread.sleep(500); // Wait 500ms before retry
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
             }
-        }
-        return null;
+        }));
     }
     
-    // Start background thread to periodically refresh connections
-    private void startConnectionRefreshThread(NodeImpl node, int nodeId) {
-        Thread refreshThread = new Thread(() -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    Thread.sleep(2000); // Refresh every 2 seconds
-                    
-                    // Always refresh connections to handle new nodes joining
-                    connectToOtherNodes(node, nodeId);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                } catch (Exception e) {
-                    // Logger.debug("Error refreshing connections: " + e.getMessage());
+    // One long poll. Joined nodes are probed before they become peers; the ones that do not answer
+    // are kept in unreachable and probed again after a short poll.
+    private long syncMembership(NodeImpl node, int nodeId, long sinceVersion, Map<Integer, Node> unreachable,
+                                boolean initial) throws Exception {
+        long timeout = initial ? 0 : unreachable.isEmpty() ? Config.MEMBERSHIP_POLL_TIMEOUT_MS : MEMBERSHIP_RETRY_MS;
+        MembershipDelta delta = nodeRegistry.awaitMembershipChange(sinceVersion, timeout);
+        int added = 0;
+        int removed = 0;
+        
+        if (delta.isFull()) {
+            unreachable.keySet().retainAll(delta.getJoined().keySet());
+            for (Integer knownId : node.getPeerIds()) {
+                if (!delta.getJoined().containsKey(knownId) && node.removePeer(knownId)) {
+                    removed++;
                 }
             }
-        });
-        refreshThread.setDaemon(true);
-        refreshThread.start();
+        }
+        for (Integer leftId : delta.getLeft()) {
+            unreachable.remove(leftId);
+            if (node.removePeer(leftId)) {
+                removed++;
+            }
+        }
+        for (Map.Entry<Integer, Node> joined : delta.getJoined().entrySet()) {
+            if (joined.getKey() != nodeId && !node.hasPeer(joined.getKey(), joined.getValue())) {
+                unreachable.put(joined.getKey(), joined.getValue());
+            }
+        }
+        
+        // Probe concurrently with one shared deadline; a node that does not answer is not a usable peer yet
+        Map<Integer, Future<Integer>> probes = new HashMap<>();
+        for (Map.Entry<Integer, Node> candidate : unreachable.entrySet()) {
+            Node stub = candidate.getValue();
+            probes.put(candidate.getKey(), PROBES.submit(stub::getNodeId));
+        }
+        long deadline = System.currentTimeMillis() + Config.PEER_PROBE_TIMEOUT_MS;
+        for (Map.Entry<Integer, Future<Integer>> probe : probes.entrySet()) {
+            int otherId = probe.getKey();
+            try {
+                probe.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                node.addPeer(otherId, unreachable.remove(otherId));
+                added++;
+                Logger.debug("Successfully connected to Node " + otherId);
+            } catch (Exception e) {
+                probe.getValue().cancel(true);
+                Logger.debug("Could not connect to Node " + otherId + " (may not be reachable yet)");
+            }
+        }
+        
+        if (initial || added > 0 || removed > 0) {
+            Logger.info("Node " + nodeId + " connected to " + node.getPeerIds().size() + " other node(s)"
+                + (added > 0 || removed > 0 ? " (+" + added + "/-" + removed + ")" : ""));
+        }
+        return delta.getVersion();
     }
     
-    private void startSimulation() {
+    // watchPeers: run the failure detector, which only makes sense for a process holding a single node
+    private void startSimulation(boolean watchPeers) throws IOException {
+        Workload workload = Workload.fromConfig();
+        metricsReporter = MetricsReporter.start(nodes);
+        
         Logger.info("\nStarting simulation...");
-        Logger.info("Nodes will periodically request access to critical section.");
-        Logger.info("Press 'q' and Enter to quit the simulation.\n");
+        Logger.info("Workload: " + workload);
+        if (Config.WORKLOAD_DURATION_S > 0) {
+            Logger.info("Running for " + Config.WORKLOAD_DURATION_S + " s.\n");
+        } else {
+            Logger.info("Press 'q' and Enter to quit the simulation.\n");
+        }
         
+        // Nodes in one process fail together, and heartbeats among hundreds of them would only compete with the workload
         for (NodeImpl node : nodes) {
-            node.startSimulation();
+            if (watchPeers && Config.isFailureDetectionEnabled()) {
+                node.startFailureDetector(Config.HEARTBEAT_INTERVAL_MS, Config.PHI_THRESHOLD);
+            }
+        }
+        workloadDriver = new WorkloadDriver(workload, nodes);
+        workloadDriver.start();
+    }
+    
+    // Block until the configured run length has passed, or until the user quits
+    private static void awaitEnd(Scanner scanner) throws InterruptedException {
+        if (Config.WORKLOAD_DURATION_S > 0) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(Config.WORKLOAD_DURATION_S));
+            return;
+        }
+        while (true) {
+            try {
+                String input = scanner.nextLine().trim();
+                if ("q".equalsIgnoreCase(input)) {
+                    break;
+                }
+            } catch (Exception e) {
+                Thread.sleep(1000);
+            }
         }
     }
     
@@ -243,14 +300,31 @@ public class RicartAgrawalaApp {
         Logger.info("\nShutting down...");
         
         try {
-            // Stop all simulation threads
+            // Stop the workload and print its report whatever the log level, then the failure detectors and membership watchers
+            if (workloadDriver != null) {
+                WorkloadDriver.Report report = workloadDriver.stop();
+                workloadDriver = null;
+                Logger.flush();
+                System.out.print("\n" + report.toText());
+            }
             for (NodeImpl node : nodes) {
-                node.stopSimulation();
+                node.stopFailureDetector();
+            }
+            for (Future<?> watcher : membershipWatchers) {
+                watcher.cancel(true);
             }
             
             // Wait for threads to stop
             Thread.sleep(1000);
             
+            // Last metrics dump, then stop serving them
+            if (metricsReporter != null) {
+                metricsReporter.close();
+            }
+            for (NodeImpl node : nodes) {
+                node.getTrace().close();
+            }
+            
             // Unregister nodes from custom registry
             for (NodeImpl node : nodes) {
                 try {
@@ -264,11 +338,19 @@ public class RicartAgrawalaApp {
             }
             
             // Unexport node objects
-            for (NodeImpl node : nodes) {
-                try {
-                    UnicastRemoteObject.unexportObject(node, true);
-                } catch (Exception e) {
-                    Logger.debug("Failed to unexport node: " + e.getMessage());
+            for (NioTransport transport : transports) {
+                transport.close();
+            }
+            for (LocalTransport transport : localTransports) {
+                transport.close();
+            }
+            if (!Config.isNioTransport() && !Config.isLocalTransport()) {
+                for (NodeImpl node : nodes) {
+                    try {
+                        UnicastRemoteObject.unexportObject(node, true);
+                    } catch (Exception e) {
+                        Logger.debug("Failed to unexport node: " + e.getMessage());
+                    }
                 }
             }
             
@@ -299,6 +381,12 @@ public class RicartAgrawalaApp {
     }
     
     public static void main(String[] args) {
+        try {
+            Config.validate();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
         configureRmiHostname();
         RicartAgrawalaApp app = new RicartAgrawalaApp();
         Scanner scanner = new Scanner(System.in);
@@ -333,7 +421,12 @@ public class RicartAgrawalaApp {
                 
             } else if (multiMachineMode) {
                 // Multi-machine mode: run single node
-                Logger.info("Running in multi-machine mode (single node per process)");
+                Logger.info("Running in multi-machine mode (single node per process, " + Config.TRANSPORT + " transport)");
+                
+                if (Config.isLocalTransport()) {
+                    Logger.error("The local transport only connects nodes in the same process; use rmi or nio in multi-machine mode");
+                    return;
+                }
                 
                 int nodeId;
                 if (args.length > 1) {
@@ -342,16 +435,18 @@ public class RicartAgrawalaApp {
                         Logger.info("Node ID provided via arguments: " + nodeId);
                     } catch (NumberFormatException e) {
                         Logger.error("Invalid Node ID argument. Prompting for input...");
-                        System.out.print("Enter node ID (0-9): ");
+                        Logger.flush();
+                        System.out.print("Enter node ID: ");
                         nodeId = scanner.nextInt();
                     }
                 } else {
-                    System.out.print("Enter node ID (0-9): ");
+                    Logger.flush();
+                    System.out.print("Enter node ID: ");
                     nodeId = scanner.nextInt();
                 }
                 
-                if (nodeId < 0 || nodeId > 9) {
-                    Logger.error("Node ID must be between 0 and 9");
+                if (nodeId < 0) {
+                    Logger.error("Node ID must not be negative");
                     return;
                 }
                 
@@ -362,53 +457,36 @@ public class RicartAgrawalaApp {
                 Logger.info("Waiting 3 seconds for other nodes to connect...");
                 Thread.sleep(3000);
                 
-                app.startSimulation();
+                app.startSimulation(true);
                 
-                System.out.println("Node " + nodeId + " is running... Press 'q' and Enter to quit:");
-                while (true) {
-                    try {
-                        String input = scanner.nextLine().trim();
-                        if ("q".equalsIgnoreCase(input)) {
-                            break;
-                        }
-                    } catch (Exception e) {
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException ie) {
-                            break;
-                        }
-                    }
+                Logger.flush();
+                if (Config.WORKLOAD_DURATION_S == 0) {
+                    System.out.println("Node " + nodeId + " is running... Press 'q' and Enter to quit:");
                 }
+                awaitEnd(scanner);
             } else {
                 // Single-machine mode: run all nodes
                 Logger.info("Running in single-machine mode (all nodes in one process)");
-                System.out.print("Enter number of nodes (2-10): ");
+                Logger.flush();
+                System.out.print("Enter number of nodes (" + Config.MIN_NODES + "-" + Config.getMaxNodes() + "): ");
                 int numNodes = scanner.nextInt();
                 
                 if (!Config.isValidNodeCount(numNodes)) {
-                    Logger.error("Number of nodes must be between " + Config.MIN_NODES + " and " + Config.MAX_NODES);
+                    Logger.error("Number of nodes must be between " + Config.MIN_NODES + " and " + Config.getMaxNodes());
                     return;
                 }
                 
-                app.initializeRegistry();
+                if (!Config.isLocalTransport()) {
+                    app.initializeRegistry();
+                }
                 app.createNodes(numNodes);
-                app.startSimulation();
+                app.startSimulation(false);
                 
-                System.out.println("Simulation is running... Press 'q' and Enter to quit:");
-                while (true) {
-                    try {
-                        String input = scanner.nextLine().trim();
-                        if ("q".equalsIgnoreCase(input)) {
-                            break;
-                        }
-                    } catch (Exception e) {
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException ie) {
-                            break;
-                        }
-                    }
+                Logger.flush();
+                if (Config.WORKLOAD_DURATION_S == 0) {
+                    System.out.println("Simulation is running... Press 'q' and Enter to quit:");
                 }
+                awaitEnd(scanner);
             }
             
         } catch (Exception e) {
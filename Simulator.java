@@ -0,0 +1,448 @@
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic discrete-event simulation of a cluster. The nodes are real NodeImpl instances, but their
+ * peer channels send inline and every peer stub schedules the delivery on a virtual clock instead of making
+ * a call, so the protocol handlers run one event at a time in a single thread. Message latency, reordering
+ * and loss come from the sim.* properties and a seeded Random: the same seed gives the same run. The workload
+ * is the one WorkloadDriver runs (workload.* properties).
+ *
+ * Cost is per delivered message, and Ricart-Agrawala sends 2(N-1) per acquisition, so wall time grows with
+ * acquisitions x N. Measured on one core, 600 simulated seconds with think exp:3000 and CS exp:10:
+ * about 0.5 s at N=20, mostly JIT warm-up; 5 s at N=100 (4M messages, 700-850k/s). Every node holds a
+ * channel and reply statistics for every peer, about 300 bytes a link, so N=1000 needs a heap of 400-500 MB
+ * and runs at 350-470k messages/s, GC taking a quarter of it: 60 simulated seconds take 11 s with think
+ * exp:30000 (33 acquisitions/s) and 33 s with exp:3000, which saturates the critical section.
+ *
+ * Usage: java -Dsim.nodes=100 -Dsim.seconds=3600 -Dsim.drop=0.001 Simulator
+ */
+public class Simulator {
+
+    private final Workload workload;
+    private final Workload.Distribution latency;
+    private final boolean reorder;
+    private final double dropRate;
+    private final long seed;
+    private final long endNanos;
+    private final long timeoutNanos;
+    private final Random random;
+
+    // Pending events in time order; equal times run in the order they were scheduled
+    private final PriorityQueue<Event> events;
+    private long now;
+    private long sequence;
+    private long processed;
+
+    private final SimNode[] nodes;
+
+    // Latest delivery time per link (from * n + to), so a FIFO link never lets a message overtake an earlier one
+    private final long[] lastDelivery;
+
+    private final long[] messages;
+    private long lostMessages;
+    private long timeouts;
+    private long droppedArrivals;
+    private long violations;
+    private int writers;
+    private int readers;
+    private long sharedAcquisitions;
+    private long fingerprint;
+    private final LatencyHistogram waits;
+
+    public Simulator(Workload workload, int nodeCount, Workload.Distribution latency, boolean reorder, double dropRate,
+                     long seed, long seconds) throws RemoteException {
+        if (nodeCount < 1 || nodeCount > Config.MAX_LOCAL_NODES) {
+            throw new IllegalArgumentException("Simulated nodes must be between 1 and " + Config.MAX_LOCAL_NODES + ", got " + nodeCount);
+        }
+        if (dropRate < 0 || dropRate >= 1) {
+            throw new IllegalArgumentException("Drop probability must be in [0, 1), got " + dropRate);
+        }
+        this.workload = workload;
+        this.latency = latency;
+        this.reorder = reorder;
+        this.dropRate = dropRate;
+        this.seed = seed;
+        this.endNanos = TimeUnit.SECONDS.toNanos(seconds);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Config.NODE_RESPONSE_TIMEOUT_MS);
+        this.random = new Random(seed);
+        this.events = new PriorityQueue<>();
+        this.lastDelivery = reorder ? null : new long[nodeCount * nodeCount];
+        this.messages = new long[NodeMetrics.Message.values().length];
+        this.waits = new LatencyHistogram();
+
+        // Node ids are 0..n-1, the same as their index here
+        this.nodes = new SimNode[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            Map<Integer, Node> peers = new LinkedHashMap<>();
+            for (int j = 0; j < nodeCount; j++) {
+                if (j != i) {
+                    peers.put(j, new Link(i, j));
+                }
+            }
+            nodes[i] = new SimNode(new NodeImpl(i, peers, nodeCount, Runnable::run), workload.loadFactor(i, nodeCount));
+        }
+    }
+
+    public static Simulator fromConfig() throws RemoteException {
+        return new Simulator(Workload.fromConfig(), Config.SIM_NODES, Workload.Distribution.parse(Config.SIM_LATENCY),
+            Config.SIM_REORDER, Config.SIM_DROP, Config.SIM_SEED, Config.SIM_SECONDS);
+    }
+
+    // Run until the simulated end time and return the report
+    public String run() {
+        long started = System.nanoTime();
+        for (SimNode node : nodes) {
+            if (workload.isOpenLoop()) {
+                schedule(workload.nextArrivalNanos(node.loadFactor, random), () -> generate(node));
+            } else {
+                schedule(workload.thinkTimeNanos(node.loadFactor, random), () -> arrive(node));
+            }
+        }
+
+        while (!events.isEmpty() && events.peek().time <= endNanos) {
+            Event event = events.poll();
+            now = event.time;
+            event.action.run();
+            processed++;
+        }
+        return toText(System.nanoTime() - started);
+    }
+
+    private void schedule(long delayNanos, Runnable action) {
+        events.add(new Event(now + Math.max(0, delayNanos), sequence++, action));
+    }
+
+    // Open loop: one arrival (or burst) now, the next one on schedule
+    private void generate(SimNode node) {
+        for (int i = 0; i < workload.getBurstSize(); i++) {
+            if (node.arrivals.size() >= Config.WORKLOAD_MAX_OUTSTANDING) {
+                droppedArrivals++;
+            } else {
+                node.arrivals.add(now);
+            }
+        }
+        tryRequest(node);
+        schedule(workload.nextArrivalNanos(node.loadFactor, random), () -> generate(node));
+    }
+
+    // Closed loop: the next acquisition after the think time
+    private void arrive(SimNode node) {
+        node.arrivals.add(now);
+        tryRequest(node);
+    }
+
+    private void tryRequest(SimNode node) {
+        if (node.busy || node.arrivals.isEmpty()) {
+            return;
+        }
+        node.busy = true;
+        long timestamp = node.impl.beginRequest(workload.isRead(random));
+        // Count the mode the node actually requested: engines enter every read exclusively
+        node.shared = node.impl.isRequestShared();
+        schedule(timeoutNanos, () -> abandon(node, timestamp));
+        tryEnter(node);
+    }
+
+    // Called after every step that may complete a node's request
+    private void tryEnter(SimNode node) {
+        if (!node.busy || node.inside || !node.impl.enterIfGranted()) {
+            return;
+        }
+        node.inside = true;
+        if (node.shared) {
+            readers++;
+            sharedAcquisitions++;
+        } else {
+            writers++;
+        }
+        if (writers > 1 || (writers == 1 && readers > 0)) {
+            violations++;
+        }
+        waits.record(now - node.arrivals.poll());
+        node.acquisitions++;
+        fingerprint = fingerprint * 31 + now;
+        fingerprint = fingerprint * 31 + node.impl.getNodeId();
+        schedule(workload.getCsTime().sampleNanos(random), () -> exit(node));
+    }
+
+    private void exit(SimNode node) {
+        if (node.shared) {
+            readers--;
+        } else {
+            writers--;
+        }
+        node.inside = false;
+        node.impl.releaseCriticalSection();
+        finished(node);
+    }
+
+    // Timeout for the request with this timestamp; a no-op if the node has entered or moved on since
+    private void abandon(SimNode node, long timestamp) {
+        if (node.inside || !node.impl.abandonRequest(timestamp)) {
+            return;
+        }
+        timeouts++;
+        node.arrivals.poll();
+        finished(node);
+    }
+
+    private void finished(SimNode node) {
+        node.busy = false;
+        if (workload.isOpenLoop()) {
+            tryRequest(node);
+        } else {
+            schedule(workload.thinkTimeNanos(node.loadFactor, random), () -> arrive(node));
+        }
+    }
+
+    // A message from one node to another: lost, or delivered after the sampled latency
+    private void transmit(int from, int to, NodeMetrics.Message kind, PeerChannel.Message message) {
+        messages[kind.ordinal()]++;
+        if (dropRate > 0 && random.nextDouble() < dropRate) {
+            lostMessages++;
+            return;
+        }
+
+        long deliverAt = now + latency.sampleNanos(random);
+        if (!reorder) {
+            int link = from * nodes.length + to;
+            deliverAt = Math.max(deliverAt, lastDelivery[link]);
+            lastDelivery[link] = deliverAt;
+        }
+        SimNode target = nodes[to];
+        schedule(deliverAt - now, () -> {
+            try {
+                message.deliver(target.impl);
+            } catch (RemoteException e) {
+                throw new IllegalStateException("Simulated delivery failed", e);
+            }
+            tryEnter(target);
+        });
+    }
+
+    private String toText(long wallNanos) {
+        long acquisitions = 0;
+        double sum = 0;
+        double sumOfSquares = 0;
+        SimNode least = nodes[0];
+        SimNode most = nodes[0];
+        for (SimNode node : nodes) {
+            acquisitions += node.acquisitions;
+            double share = node.acquisitions / node.loadFactor;
+            sum += share;
+            sumOfSquares += share * share;
+            if (node.acquisitions < least.acquisitions) {
+                least = node;
+            }
+            if (node.acquisitions > most.acquisitions) {
+                most = node;
+            }
+        }
+        double fairness = sumOfSquares == 0 ? 1 : sum * sum / (nodes.length * sumOfSquares);
+        long totalMessages = 0;
+        for (long count : messages) {
+            totalMessages += count;
+        }
+        double seconds = endNanos / 1e9;
+        LatencyHistogram.Snapshot wait = waits.snapshot();
+
+        return "=== Simulation report ===\n"
+            + "Cluster:       " + nodes.length + " node(s), " + Config.ALGORITHM
+            + ", seed " + seed + "\n"
+            + "Network:       latency " + latency + " ms, " + (reorder ? "reordering" : "FIFO") + " links, drop probability " + dropRate + "\n"
+            + "Workload:      " + workload + "\n"
+            + "Simulated:     " + format(seconds) + " s in " + format(wallNanos / 1e6) + " ms wall time, " + processed + " events ("
+            + format(processed / Math.max(wallNanos / 1e9, 1e-9)) + "/s)\n"
+            + "Acquisitions:  " + acquisitions + " (" + format(acquisitions / seconds) + "/s simulated"
+            + (sharedAcquisitions > 0 ? ", " + sharedAcquisitions + " shared" : "") + "), timeouts " + timeouts
+            + ", dropped arrivals " + droppedArrivals + "\n"
+            + "Violations:    " + violations + "\n"
+            + "Messages:      " + totalMessages + " (" + messageCounts() + "), lost " + lostMessages
+            + ", " + format(acquisitions == 0 ? 0 : (double) totalMessages / acquisitions) + " per acquisition\n"
+            + "Wait (ms):     mean=" + format(wait.getMean() / 1e6)
+            + " p50=" + millis(wait.getPercentile(50))
+            + " p90=" + millis(wait.getPercentile(90))
+            + " p99=" + millis(wait.getPercentile(99))
+            + " p99.9=" + millis(wait.getPercentile(99.9))
+            + " max=" + millis(wait.getMax()) + "\n"
+            + "Per node:      min " + least.acquisitions + " (Node " + least.impl.getNodeId() + "), max " + most.acquisitions
+            + " (Node " + most.impl.getNodeId() + "), Jain fairness " + String.format(Locale.ROOT, "%.3f", fairness) + "\n"
+            + "Fingerprint:   " + String.format(Locale.ROOT, "%016x", fingerprint) + "\n";
+    }
+
+    // Every type sent, by name; Maekawa grants are counted as replies
+    private String messageCounts() {
+        StringBuilder text = new StringBuilder();
+        for (NodeMetrics.Message type : NodeMetrics.Message.values()) {
+            if (messages[type.ordinal()] > 0 || type.ordinal() <= NodeMetrics.Message.RELEASE.ordinal()) {
+                text.append(text.length() == 0 ? "" : ", ").append(type.name().toLowerCase(Locale.ROOT)).append(' ').append(messages[type.ordinal()]);
+            }
+        }
+        return text.toString();
+    }
+
+    private static String millis(long nanos) {
+        return format(nanos / 1e6);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    public static void main(String[] args) {
+        // Nodes log every message they handle, and the report already counts timeouts; unless asked otherwise
+        // only errors are logged, and only to log.dir files, so logging does not dominate the run
+        if (System.getProperty("log.level") == null) {
+            System.setProperty("log.level", "ERROR");
+        }
+        if (System.getProperty("log.console") == null) {
+            System.setProperty("log.console", "false");
+        }
+        try {
+            Config.validate();
+            String report = fromConfig().run();
+            Logger.flush();
+            System.out.print(report);
+        } catch (Exception e) {
+            Logger.flush();
+            System.err.println("Simulation failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Workload state of one simulated node. busy: requesting or inside; inside: in the critical section;
+    // shared: the current acquisition only reads
+    private static class SimNode {
+        private final NodeImpl impl;
+        private final double loadFactor;
+        private final ArrayDeque<Long> arrivals;
+        private boolean busy;
+        private boolean inside;
+        private boolean shared;
+        private long acquisitions;
+
+        private SimNode(NodeImpl impl, double loadFactor) {
+            this.impl = impl;
+            this.loadFactor = loadFactor;
+            this.arrivals = new ArrayDeque<>();
+        }
+    }
+
+    // Peer stub held by node from for node to: every call becomes a scheduled delivery
+    private class Link implements Node, QuorumNode, TokenNode {
+        private final int from;
+        private final int to;
+
+        private Link(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean request(int requesterId, long timestamp) {
+            transmit(from, to, NodeMetrics.Message.REQUEST, peer -> peer.request(requesterId, timestamp));
+            return true;
+        }
+
+        @Override
+        public boolean requestShared(int requesterId, long timestamp) {
+            transmit(from, to, NodeMetrics.Message.REQUEST, peer -> peer.requestShared(requesterId, timestamp));
+            return true;
+        }
+
+        @Override
+        public void reply(int replierId, int requesterId, long requestTimestamp) {
+            transmit(from, to, NodeMetrics.Message.REPLY, peer -> peer.reply(replierId, requesterId, requestTimestamp));
+        }
+
+        @Override
+        public void release(int releaserId) {
+            transmit(from, to, NodeMetrics.Message.RELEASE, peer -> peer.release(releaserId));
+        }
+
+        @Override
+        public void quorumRequest(int requesterId, long timestamp) {
+            transmit(from, to, NodeMetrics.Message.REQUEST, peer -> ((QuorumNode) peer).quorumRequest(requesterId, timestamp));
+        }
+
+        @Override
+        public void grant(int voterId, long requestTimestamp) {
+            transmit(from, to, NodeMetrics.Message.REPLY, peer -> ((QuorumNode) peer).grant(voterId, requestTimestamp));
+        }
+
+        @Override
+        public void inquire(int voterId, long requestTimestamp) {
+            transmit(from, to, NodeMetrics.Message.INQUIRE, peer -> ((QuorumNode) peer).inquire(voterId, requestTimestamp));
+        }
+
+        @Override
+        public void relinquish(int requesterId, long requestTimestamp) {
+            transmit(from, to, NodeMetrics.Message.YIELD, peer -> ((QuorumNode) peer).relinquish(requesterId, requestTimestamp));
+        }
+
+        @Override
+        public void failed(int voterId, long requestTimestamp) {
+            transmit(from, to, NodeMetrics.Message.FAILED, peer -> ((QuorumNode) peer).failed(voterId, requestTimestamp));
+        }
+
+        @Override
+        public void quorumRelease(int requesterId, long requestTimestamp) {
+            transmit(from, to, NodeMetrics.Message.RELEASE, peer -> ((QuorumNode) peer).quorumRelease(requesterId, requestTimestamp));
+        }
+
+        @Override
+        public void tokenRequest(int requesterId, long sequence) {
+            transmit(from, to, NodeMetrics.Message.REQUEST, peer -> ((TokenNode) peer).tokenRequest(requesterId, sequence));
+        }
+
+        @Override
+        public void token(int senderId, Token token) {
+            transmit(from, to, NodeMetrics.Message.TOKEN, peer -> ((TokenNode) peer).token(senderId, token));
+        }
+
+        @Override
+        public void tokenProbe(int proberId, long generation) {
+            transmit(from, to, NodeMetrics.Message.PROBE, peer -> ((TokenNode) peer).tokenProbe(proberId, generation));
+        }
+
+        @Override
+        public void tokenProbeReply(int voterId, long generation, long served) {
+            transmit(from, to, NodeMetrics.Message.PROBE, peer -> ((TokenNode) peer).tokenProbeReply(voterId, generation, served));
+        }
+
+        @Override
+        public int getNodeId() {
+            return to;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return true;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        private final long time;
+        private final long sequence;
+        private final Runnable action;
+
+        private Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suzuki-Kasami's token algorithm (-Dalgorithm=suzuki-kasami). A single token moves between the nodes and
+ * only its holder may enter. A node without it broadcasts a numbered request; the holder passes the token on
+ * when it leaves, to the nodes whose latest request it has not served yet, in turn. An entry costs at most N
+ * messages, and none while the holder keeps re-entering with nobody else asking, which suits high contention.
+ *
+ * Nobody starts with the token: the lowest id of the membership creates the first one with a probe (below) as
+ * soon as it or a peer requests. A node that restarts into a running cluster is thus refused by the holder, and
+ * learns the current generation from the refusals instead of minting a second token.
+ *
+ * Token loss: a node whose request times out without the token probes every peer that is neither suspected
+ * nor gone with a new generation; once the holder fails, every node waiting for it does. A peer holding the
+ * token refuses, and the token takes that generation; so does a peer that has already seen that generation,
+ * naming the newest it knows. Any other peer agrees and from then on drops tokens of older generations, so a
+ * token still in flight cannot turn up next to a new one. If every peer agrees, the
+ * prober regenerates the token from the last served requests the peers reported. A peer suspected wrongly
+ * does not take part, so, as with the reply quorum, a false suspicion can briefly break mutual exclusion.
+ * Not thread-safe: NodeImpl calls everything with its lock held.
+ */
+class SuzukiKasamiEngine implements ExclusionEngine {
+
+    static final long REFUSED = -1;
+
+    private final int nodeId;
+    private final PeerTable peers;
+    private final TokenNode self;
+    private final NodeMetrics metrics;
+    private final TraceRecorder trace;
+    private final AtomicLong logicalClock;
+
+    // Highest request sequence number seen from every node, this one included, by node id
+    private final TreeMap<Integer, Long> requested;
+    private long sequence;
+    private long served;
+    private boolean requesting;
+    private Token token;
+
+    // Loss detection: the highest generation seen, the newest probe agreed to (older tokens are dropped),
+    // and this node's own probe with the peers yet to answer it
+    private long generation;
+    private long votedGeneration;
+    private long probeGeneration;
+    private final Set<Integer> probePending;
+    private final Map<Integer, Long> probeServed;
+    private final Set<Integer> suspected;
+
+    SuzukiKasamiEngine(int nodeId, PeerTable peers, TokenNode self, NodeMetrics metrics, TraceRecorder trace, AtomicLong logicalClock) {
+        this.nodeId = nodeId;
+        this.peers = peers;
+        this.self = self;
+        this.metrics = metrics;
+        this.trace = trace;
+        this.logicalClock = logicalClock;
+        this.requested = new TreeMap<>();
+        this.probePending = new HashSet<>();
+        this.probeServed = new HashMap<>();
+        this.suspected = new HashSet<>();
+    }
+
+    @Override
+    public void begin(long timestamp) {
+        requesting = true;
+        long current = ++sequence;
+        requested.put(nodeId, current);
+        // An idle holder enters without asking anyone
+        if (token != null) {
+            return;
+        }
+        bootstrap();
+        for (PeerChannel channel : peers.snapshot()) {
+            send(channel.getPeerId(), NodeMetrics.Message.REQUEST, node -> node.tokenRequest(nodeId, current));
+        }
+    }
+
+    @Override
+    public boolean isGranted() {
+        return requesting && token != null;
+    }
+
+    // An idle holder re-enters without asking anyone
+    @Override
+    public boolean canEnterAlone() {
+        return token != null;
+    }
+
+    @Override
+    public void release() {
+        if (!requesting) {
+            return;
+        }
+        requesting = false;
+        if (token == null) {
+            // Given up waiting: the token may be lost
+            startProbe();
+            return;
+        }
+        passToken();
+    }
+
+    @Override
+    public boolean hasWaitingPeers() {
+        if (token == null) {
+            return false;
+        }
+        for (Map.Entry<Integer, Long> entry : requested.entrySet()) {
+            if (entry.getKey() != nodeId && entry.getValue() > token.served(entry.getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void peerSuspected(int peerId) {
+        suspected.add(peerId);
+        peerGone(peerId);
+    }
+
+    @Override
+    public void peerRecovered(int peerId) {
+        suspected.remove(peerId);
+    }
+
+    @Override
+    public void peerLeft(int peerId) {
+        suspected.remove(peerId);
+        peerGone(peerId);
+    }
+
+    // A probe under way no longer waits for the peer
+    private void peerGone(int peerId) {
+        if (probeGeneration != 0 && probePending.remove(peerId) && probePending.isEmpty()) {
+            regenerate();
+        }
+    }
+
+    void onRequest(int requesterId, long requestSequence) {
+        received(requesterId, NodeMetrics.Message.REQUEST, TraceRecorder.Event.REQUEST_RECEIVED);
+        Long known = requested.get(requesterId);
+        if (known != null && requestSequence <= known) {
+            return;
+        }
+        requested.put(requesterId, requestSequence);
+        if (token != null && !requesting) {
+            passToken();
+        } else if (token == null) {
+            bootstrap();
+        }
+    }
+
+    // No generation seen yet: the lowest id of the membership probes for the first token
+    private void bootstrap() {
+        if (generation != 0 || votedGeneration != 0 || probeGeneration != 0) {
+            return;
+        }
+        for (PeerChannel channel : peers.snapshot()) {
+            if (channel.getPeerId() < nodeId) {
+                return;
+            }
+        }
+        startProbe();
+    }
+
+    void onToken(int senderId, Token received) {
+        received(senderId, NodeMetrics.Message.TOKEN, TraceRecorder.Event.REPLY_RECEIVED);
+        if (received.getGeneration() < votedGeneration) {
+            if (Logger.isEnabled(Logger.Level.ERROR)) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Dropped token of generation " + received.getGeneration()
+                    + " from Node " + senderId + ", superseded by generation " + votedGeneration);
+            }
+            return;
+        }
+        if (token != null) {
+            if (Logger.isEnabled(Logger.Level.ERROR)) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Received a second token from Node " + senderId + " [generations:"
+                    + token.getGeneration() + "," + received.getGeneration() + "], keeping the newer one");
+            }
+            if (received.getGeneration() <= token.getGeneration()) {
+                return;
+            }
+        }
+        token = received;
+        generation = Math.max(generation, received.getGeneration());
+        // The token turned up, so this node's own probe is moot
+        probeGeneration = 0;
+        if (!requesting) {
+            passToken();
+        }
+    }
+
+    private void passToken() {
+        // This node's request, entered or abandoned, is served
+        token.setServed(nodeId, sequence);
+        served = sequence;
+
+        // Queue every other node with a request not served yet, in id order after this one so nobody is favoured
+        Set<Integer> queued = new HashSet<>(token.queue());
+        for (Map<Integer, Long> part : List.of(requested.tailMap(nodeId, false), requested.headMap(nodeId, false))) {
+            for (Map.Entry<Integer, Long> entry : part.entrySet()) {
+                int id = entry.getKey();
+                if (entry.getValue() > token.served(id) && !queued.contains(id)) {
+                    token.queue().add(id);
+                }
+            }
+        }
+
+        // A queued node that has left or is suspected would only lose the token; it asks again after its timeout
+        Integer next;
+        while ((next = token.queue().poll()) != null) {
+            int target = next;
+            if (target != nodeId && peers.get(target) != null && !suspected.contains(target)) {
+                Token passed = token;
+                token = null;
+                send(target, NodeMetrics.Message.TOKEN, node -> node.token(nodeId, passed));
+                return;
+            }
+        }
+    }
+
+    // Loss detection
+
+    private void startProbe() {
+        if (token != null) {
+            return;
+        }
+        long probe = Math.max(generation, votedGeneration) + 1;
+        generation = probe;
+        votedGeneration = probe;
+        probeGeneration = probe;
+        probePending.clear();
+        probeServed.clear();
+        if (Logger.isEnabled(Logger.Level.INFO)) {
+            Logger.logNode(nodeId, Logger.Level.INFO, "Token may be lost, probing peers [generation:" + probe + "]");
+        }
+        for (PeerChannel channel : peers.snapshot()) {
+            int peerId = channel.getPeerId();
+            if (!suspected.contains(peerId)) {
+                probePending.add(peerId);
+            }
+        }
+        if (probePending.isEmpty()) {
+            regenerate();
+            return;
+        }
+        for (int peerId : new HashSet<>(probePending)) {
+            send(peerId, NodeMetrics.Message.PROBE, node -> node.tokenProbe(nodeId, probe));
+        }
+    }
+
+    void onProbe(int proberId, long probe) {
+        received(proberId, NodeMetrics.Message.PROBE, null);
+        long answer;
+        if (token != null) {
+            // The token is here: it takes the new generation, so peers that agreed to the probe still accept it
+            token.setGeneration(Math.max(token.getGeneration(), probe));
+            generation = Math.max(generation, probe);
+            answer = REFUSED;
+        } else if (probe <= Math.max(generation, votedGeneration)) {
+            // A token of that generation exists or is on its way: the prober learns a newer one to use
+            answer = REFUSED;
+        } else {
+            // A newer probe than this node's own wins
+            votedGeneration = probe;
+            generation = Math.max(generation, probe);
+            probeGeneration = 0;
+            answer = served;
+        }
+        // A refusal names the newest generation known here, never older than the probe
+        long replied = answer == REFUSED ? Math.max(generation, votedGeneration) : probe;
+        send(proberId, NodeMetrics.Message.PROBE, node -> node.tokenProbeReply(nodeId, replied, answer));
+    }
+
+    void onProbeReply(int voterId, long probe, long voterServed) {
+        received(voterId, NodeMetrics.Message.PROBE, null);
+        if (voterServed == REFUSED) {
+            // The next probe goes above the generation the voter named
+            generation = Math.max(generation, probe);
+            if (probeGeneration != 0 && probe >= probeGeneration && probePending.contains(voterId)) {
+                if (Logger.isEnabled(Logger.Level.INFO)) {
+                    Logger.logNode(nodeId, Logger.Level.INFO, "Node " + voterId + " refused probe [generation:"
+                        + probeGeneration + ", known:" + probe + "]");
+                }
+                probeGeneration = 0;
+            }
+            return;
+        }
+        if (probe != probeGeneration || !probePending.contains(voterId)) {
+            return;
+        }
+        probePending.remove(voterId);
+        probeServed.put(voterId, voterServed);
+        if (probePending.isEmpty()) {
+            regenerate();
+        }
+    }
+
+    // Every live peer agreed: requests of peers that did not answer are taken as served
+    private void regenerate() {
+        Token fresh = new Token(probeGeneration);
+        for (Map.Entry<Integer, Long> entry : requested.entrySet()) {
+            fresh.setServed(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Integer, Long> entry : probeServed.entrySet()) {
+            fresh.setServed(entry.getKey(), entry.getValue());
+        }
+        fresh.setServed(nodeId, served);
+        if (Logger.isEnabled(Logger.Level.ERROR)) {
+            Logger.logNode(nodeId, Logger.Level.ERROR, "Regenerated the token [generation:" + probeGeneration + "]");
+        }
+        probeGeneration = 0;
+        token = fresh;
+        if (!requesting) {
+            passToken();
+        }
+    }
+
+    // Messages to this node itself are handled at once, under the lock the caller already holds
+    private void send(int targetId, NodeMetrics.Message type, Message message) {
+        if (targetId == nodeId) {
+            try {
+                message.deliver(self);
+            } catch (RemoteException e) {
+                throw new IllegalStateException("Local delivery failed", e);
+            }
+            return;
+        }
+
+        PeerChannel channel = peers.get(targetId);
+        if (channel == null) {
+            if (Logger.isEnabled(Logger.Level.ERROR)) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send " + type.name().toLowerCase(Locale.ROOT) + " to Node " + targetId + ": not connected");
+            }
+            return;
+        }
+        metrics.sent(type, 1);
+        if (type == NodeMetrics.Message.TOKEN) {
+            trace.record(TraceRecorder.Event.REPLY_SENT, targetId, 0, logicalClock.get());
+        }
+        channel.send(node -> message.deliver((TokenNode) node)).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to send " + type.name().toLowerCase(Locale.ROOT) + " to Node " + targetId);
+            }
+        });
+    }
+
+    private void received(int senderId, NodeMetrics.Message type, TraceRecorder.Event event) {
+        if (senderId == nodeId) {
+            return;
+        }
+        metrics.received(type);
+        if (event != null) {
+            trace.record(event, senderId, 0, logicalClock.get());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Message {
+        void deliver(TokenNode node) throws RemoteException;
+    }
+}
@@ -0,0 +1,57 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where blocking tasks run: node simulations, membership watchers, connection probes and the outbound
+ * channel senders that make the remote calls. On a runtime with virtual threads (Java 21+) each task gets
+ * one, so a parked task costs no OS thread; otherwise, or with -Dthreads.virtual=false, tasks share a
+ * pool of daemon platform threads. Nothing that runs here may block inside synchronized, which would pin
+ * the carrier thread; all locking in this code base uses java.util.concurrent locks.
+ */
+public final class Threads {
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    // Set by createExecutor(), so declared before EXECUTOR
+    private static boolean virtual;
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private Threads() {
+    }
+
+    public static ExecutorService executor() {
+        return EXECUTOR;
+    }
+
+    // Run task until it returns or the future is cancelled with cancel(true), which interrupts it
+    public static Future<?> start(Runnable task) {
+        return EXECUTOR.submit(task);
+    }
+
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively so the code still compiles for Java 17
+    private static ExecutorService createExecutor() {
+        if (Config.VIRTUAL_THREADS) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                ExecutorService executor = (ExecutorService) factory.invoke(null);
+                virtual = true;
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                // Runtime without virtual threads
+            }
+        }
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "worker-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The privilege of Suzuki-Kasami's algorithm (see SuzukiKasamiEngine): the last request of every node it
+ * has served and the nodes queued for it next. The generation grows each time a lost token is regenerated,
+ * so a token from before that is recognised and dropped. Whoever holds it owns it; it is never shared.
+ */
+public class Token implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long generation;
+    private final Map<Integer, Long> served;
+    private final ArrayDeque<Integer> queue;
+
+    Token(long generation) {
+        this.generation = generation;
+        this.served = new HashMap<>();
+        this.queue = new ArrayDeque<>();
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    // Sequence number of the node's last served request, 0 if none
+    long served(int nodeId) {
+        Long sequence = served.get(nodeId);
+        return sequence == null ? 0 : sequence;
+    }
+
+    void setServed(int nodeId, long sequence) {
+        served.put(nodeId, sequence);
+    }
+
+    ArrayDeque<Integer> queue() {
+        return queue;
+    }
+
+    // Encoding for the NIO transport: generation, served count, (id, sequence) pairs, queue length, queue ids
+    byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + served.size() * 12 + 4 + queue.size() * 4);
+        buffer.putLong(generation).putInt(served.size());
+        for (Map.Entry<Integer, Long> entry : served.entrySet()) {
+            buffer.putInt(entry.getKey()).putLong(entry.getValue());
+        }
+        buffer.putInt(queue.size());
+        for (int nodeId : queue) {
+            buffer.putInt(nodeId);
+        }
+        return buffer.array();
+    }
+
+    static Token fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Token token = new Token(buffer.getLong());
+        for (int i = buffer.getInt(); i > 0; i--) {
+            token.served.put(buffer.getInt(), buffer.getLong());
+        }
+        for (int i = buffer.getInt(); i > 0; i--) {
+            token.queue.add(buffer.getInt());
+        }
+        return token;
+    }
+
+    @Override
+    public String toString() {
+        return "Token[generation " + generation + ", queue " + queue + "]";
+    }
+}
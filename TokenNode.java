@@ -0,0 +1,22 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Messages of Suzuki-Kasami's token algorithm (see SuzukiKasamiEngine). Probes and their replies carry the
+ * token generation they are about, so answers to an earlier probe are recognised and ignored.
+ */
+public interface TokenNode extends Remote {
+
+    // The requester's sequence-th request for the critical section, sent to every peer
+    void tokenRequest(int requesterId, long sequence) throws RemoteException;
+
+    // The token itself, passed to the next node in line
+    void token(int senderId, Token token) throws RemoteException;
+
+    // The token seems lost: does the receiver hold it, and if not, will it only accept tokens of this generation on?
+    void tokenProbe(int proberId, long generation) throws RemoteException;
+
+    // Answer to tokenProbe: the voter's last request the token served, or SuzukiKasamiEngine.REFUSED with the
+    // newest generation the voter knows in place of the probe's
+    void tokenProbeReply(int voterId, long generation, long served) throws RemoteException;
+}
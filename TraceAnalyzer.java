@@ -0,0 +1,360 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline analysis of TraceRecorder files. Merges the traces of all nodes into one timeline, checks that no
+ * two nodes were ever in the critical section at once unless both held it shared, and reports the distributions
+ * of wait (request sent to entry) and hold (entry to exit) times. Times come from each machine's wall clock, so
+ * an overlap no longer than the clock skew (--skew-ms) is reported as uncertain rather than as a violation.
+ * Exits with status 1 if a violation was found.
+ *
+ * Usage: java TraceAnalyzer [--skew-ms N] [--dump] <trace file or directory>...
+ */
+public class TraceAnalyzer {
+
+    private static final int MAX_REPORTED_VIOLATIONS = 10;
+
+    private final List<Trace> traces;
+    private final long skewNanos;
+    private long violationCount;
+
+    public TraceAnalyzer(List<Trace> traces, long skewNanos) {
+        this.traces = traces;
+        this.skewNanos = skewNanos;
+    }
+
+    public static Trace read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (raf.length() < TraceRecorder.HEADER_SIZE || buffer.getInt(0) != TraceRecorder.MAGIC) {
+                throw new IOException(file + " is not a trace file");
+            }
+            if (buffer.getInt(4) != TraceRecorder.VERSION || buffer.getInt(12) != TraceRecorder.RECORD_SIZE) {
+                throw new IOException(file + " has unsupported trace version " + buffer.getInt(4));
+            }
+            int nodeId = buffer.getInt(8);
+            long capacity = buffer.getLong(16);
+            if (capacity < 1 || TraceRecorder.HEADER_SIZE + capacity * TraceRecorder.RECORD_SIZE > raf.length()) {
+                throw new IOException(file + " is truncated");
+            }
+
+            // A slot holds the record of its sequence number, unless it is empty or half-written
+            TraceRecorder.Event[] events = TraceRecorder.Event.values();
+            Trace trace = new Trace(nodeId);
+            for (int slot = 0; slot < capacity; slot++) {
+                int offset = TraceRecorder.HEADER_SIZE + slot * TraceRecorder.RECORD_SIZE;
+                long seq = buffer.getLong(offset) - 1;
+                int type = buffer.getInt(offset + 36);
+                if (seq < 0 || seq % capacity != slot || type < 0 || type >= events.length) {
+                    continue;
+                }
+                trace.records.add(new Record(nodeId, seq, buffer.getLong(offset + 8), buffer.getLong(offset + 16),
+                    buffer.getLong(offset + 24), buffer.getInt(offset + 32), events[type]));
+                trace.recorded = Math.max(trace.recorded, seq + 1);
+            }
+            trace.records.sort(Comparator.comparingLong(record -> record.seq));
+            return trace;
+        }
+    }
+
+    public String analyze() {
+        LatencyHistogram waits = new LatencyHistogram();
+        LatencyHistogram holds = new LatencyHistogram();
+        List<Interval> intervals = new ArrayList<>();
+        long[] received = new long[TraceRecorder.Event.values().length];
+        long events = 0;
+        long lost = 0;
+        long handoffs = 0;
+        long abandoned = 0;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        // Overlaps can only be checked once every node's trace is complete: from the oldest event kept by the
+        // latest-starting ring that has wrapped
+        long checkedFrom = Long.MIN_VALUE;
+        StringBuilder perNode = new StringBuilder();
+
+        for (Trace trace : traces) {
+            events += trace.records.size();
+            lost += trace.getLost();
+            if (trace.records.isEmpty()) {
+                continue;
+            }
+            first = Math.min(first, trace.records.get(0).time);
+            last = Math.max(last, trace.records.get(trace.records.size() - 1).time);
+            if (trace.getLost() > 0) {
+                checkedFrom = Math.max(checkedFrom, trace.records.get(0).time);
+            }
+
+            Map<Long, Long> requestSent = new HashMap<>();
+            Record entered = null;
+            long entries = 0;
+            for (Record record : trace.records) {
+                switch (record.event) {
+                    case REQUEST_SENT:
+                        if (record.peer == TraceRecorder.NO_PEER) {
+                            requestSent.put(record.stamp, record.time);
+                        }
+                        break;
+                    case ENTER:
+                    case ENTER_SHARED:
+                        entered = record;
+                        entries++;
+                        Long sent = requestSent.remove(record.stamp);
+                        if (record.stamp == 0) {
+                            handoffs++;
+                        } else if (sent != null) {
+                            waits.record(record.time - sent);
+                        }
+                        break;
+                    case EXIT:
+                        if (entered != null) {
+                            holds.record(record.time - entered.time);
+                            intervals.add(new Interval(trace.nodeId, entered.time, record.time, isShared(entered)));
+                            entered = null;
+                        }
+                        break;
+                    case ABANDON:
+                        abandoned++;
+                        requestSent.remove(record.stamp);
+                        break;
+                    default:
+                        received[record.event.ordinal()]++;
+                }
+            }
+            // Still inside when the trace ends, as far as we know up to its last event
+            if (entered != null) {
+                intervals.add(new Interval(trace.nodeId, entered.time, trace.records.get(trace.records.size() - 1).time, isShared(entered)));
+            }
+            perNode.append("  Node ").append(trace.nodeId).append(": ").append(trace.records.size()).append(" event(s), ")
+                .append(trace.getLost()).append(" overwritten or torn, ").append(entries).append(" entr").append(entries == 1 ? "y" : "ies").append('\n');
+        }
+
+        // Sweep the intervals in order of entry, comparing each with the one that reaches furthest so far:
+        // of all intervals for an exclusive one, of the exclusive ones only for a shared one
+        intervals.sort(Comparator.comparingLong(interval -> interval.enter));
+        List<String> violations = new ArrayList<>();
+        violationCount = 0;
+        long uncertain = 0;
+        long shared = 0;
+        Interval reachAny = null;
+        Interval reachExclusive = null;
+        for (Interval interval : intervals) {
+            if (interval.enter < checkedFrom) {
+                continue;
+            }
+            if (interval.shared) {
+                shared++;
+            }
+            Interval reach = interval.shared ? reachExclusive : reachAny;
+            if (reach != null && interval.enter < reach.exit) {
+                long overlap = Math.min(interval.exit, reach.exit) - interval.enter;
+                if (overlap > skewNanos) {
+                    violationCount++;
+                    if (violations.size() < MAX_REPORTED_VIOLATIONS) {
+                        violations.add("  Node " + interval.node + " entered at " + time(interval.enter) + " while Node " + reach.node
+                            + " was inside (since " + time(reach.enter) + "), overlap " + millis(overlap) + " ms\n");
+                    }
+                } else {
+                    uncertain++;
+                }
+            }
+            if (reachAny == null || interval.exit > reachAny.exit) {
+                reachAny = interval;
+            }
+            if (!interval.shared && (reachExclusive == null || interval.exit > reachExclusive.exit)) {
+                reachExclusive = interval;
+            }
+        }
+
+        StringBuilder text = new StringBuilder("=== Trace analysis ===\n");
+        text.append("Traces:        ").append(traces.size()).append(" node(s), ").append(events).append(" event(s), ")
+            .append(lost).append(" overwritten or torn\n");
+        if (events == 0) {
+            return text.toString();
+        }
+        text.append("Span:          ").append(time(first)).append(" to ").append(time(last)).append(" (")
+            .append(format((last - first) / 1e9)).append(" s)\n");
+        text.append("Entries:       ").append(intervals.size()).append(" (").append(shared > 0 ? shared + " shared, " : "")
+            .append(handoffs).append(" handed over locally), ")
+            .append(abandoned).append(" abandoned request(s)\n");
+        text.append("Exclusion:     ").append(violationCount == 0 ? "no violations" : violationCount + " violation(s)")
+            .append(", ").append(uncertain).append(" overlap(s) within the ").append(millis(skewNanos)).append(" ms clock skew")
+            .append(checkedFrom != Long.MIN_VALUE ? ", checked from " + time(checkedFrom) : "").append('\n');
+        for (String violation : violations) {
+            text.append(violation);
+        }
+        text.append("Received:      requests ").append(received[TraceRecorder.Event.REQUEST_RECEIVED.ordinal()])
+            .append(", replies ").append(received[TraceRecorder.Event.REPLY_RECEIVED.ordinal()])
+            .append(", releases ").append(received[TraceRecorder.Event.RELEASE_RECEIVED.ordinal()]).append('\n');
+        text.append("Wait (ms):     ").append(percentiles(waits.snapshot())).append('\n');
+        text.append("Hold (ms):     ").append(percentiles(holds.snapshot())).append('\n');
+        text.append("Per node:\n").append(perNode);
+        return text.toString();
+    }
+
+    // Violations found by the last analyze()
+    public long getViolations() {
+        return violationCount;
+    }
+
+    // Every event of every node, ordered by time
+    public String dump() {
+        List<Record> all = new ArrayList<>();
+        for (Trace trace : traces) {
+            all.addAll(trace.records);
+        }
+        all.sort(Comparator.comparingLong((Record record) -> record.time).thenComparingInt(record -> record.node)
+            .thenComparingLong(record -> record.seq));
+        StringBuilder text = new StringBuilder();
+        for (Record record : all) {
+            text.append(time(record.time)).append(" [Node").append(record.node).append("] ").append(record.event);
+            if (record.peer != TraceRecorder.NO_PEER) {
+                text.append(" peer=").append(record.peer);
+            }
+            if (record.stamp != 0) {
+                text.append(" request=").append(record.stamp);
+            }
+            text.append(" clock=").append(record.clock).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String percentiles(LatencyHistogram.Snapshot snapshot) {
+        if (snapshot.getCount() == 0) {
+            return "none";
+        }
+        return "mean=" + format(snapshot.getMean() / 1e6)
+            + " p50=" + millis(snapshot.getPercentile(50))
+            + " p90=" + millis(snapshot.getPercentile(90))
+            + " p99=" + millis(snapshot.getPercentile(99))
+            + " p99.9=" + millis(snapshot.getPercentile(99.9))
+            + " max=" + millis(snapshot.getMax())
+            + " (" + snapshot.getCount() + ")";
+    }
+
+    private static String time(long epochNanos) {
+        return Instant.ofEpochSecond(0, epochNanos).toString();
+    }
+
+    private static String millis(long nanos) {
+        return format(nanos / 1e6);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    public static void main(String[] args) {
+        long skewNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        boolean dump = false;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--skew-ms".equals(args[i]) && i + 1 < args.length) {
+                skewNanos = (long) (Double.parseDouble(args[++i]) * 1_000_000);
+            } else if ("--dump".equals(args[i])) {
+                dump = true;
+            } else {
+                File file = new File(args[i]);
+                File[] inDirectory = file.listFiles((directory, name) -> name.endsWith(".trace"));
+                if (inDirectory != null) {
+                    files.addAll(List.of(inDirectory));
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: java TraceAnalyzer [--skew-ms N] [--dump] <trace file or directory>...");
+            System.exit(2);
+        }
+
+        List<Trace> traces = new ArrayList<>();
+        for (File file : files) {
+            try {
+                traces.add(read(file));
+            } catch (IOException e) {
+                System.err.println("Skipping " + file + ": " + e.getMessage());
+            }
+        }
+        traces.sort(Comparator.comparingInt(trace -> trace.nodeId));
+
+        TraceAnalyzer analyzer = new TraceAnalyzer(traces, skewNanos);
+        if (dump) {
+            System.out.print(analyzer.dump());
+        }
+        System.out.print(analyzer.analyze());
+        System.exit(analyzer.getViolations() > 0 ? 1 : 0);
+    }
+
+    /**
+     * Events read back from one node's trace file, oldest first
+     */
+    public static class Trace {
+        private final int nodeId;
+        private final List<Record> records;
+        private long recorded;
+
+        private Trace(int nodeId) {
+            this.nodeId = nodeId;
+            this.records = new ArrayList<>();
+        }
+
+        public int getNodeId() {
+            return nodeId;
+        }
+
+        // Events recorded but no longer (or never fully) in the ring
+        public long getLost() {
+            return recorded - records.size();
+        }
+    }
+
+    private static class Record {
+        private final int node;
+        private final long seq;
+        private final long time;
+        private final long clock;
+        private final long stamp;
+        private final int peer;
+        private final TraceRecorder.Event event;
+
+        private Record(int node, long seq, long time, long clock, long stamp, int peer, TraceRecorder.Event event) {
+            this.node = node;
+            this.seq = seq;
+            this.time = time;
+            this.clock = clock;
+            this.stamp = stamp;
+            this.peer = peer;
+            this.event = event;
+        }
+    }
+
+    private static boolean isShared(Record entered) {
+        return entered.event == TraceRecorder.Event.ENTER_SHARED;
+    }
+
+    private static class Interval {
+        private final int node;
+        private final long enter;
+        private final long exit;
+        private final boolean shared;
+
+        private Interval(int node, long enter, long exit, boolean shared) {
+            this.node = node;
+            this.enter = enter;
+            this.exit = exit;
+            this.shared = shared;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary trace of one node's protocol events in a memory-mapped ring file, cheap enough to leave on: recording
+ * an event is a counter increment and a few stores into the mapping, with no allocation, lock or system call.
+ * The kernel writes the pages back, so a trace survives the process crashing. Only the last capacity events
+ * are kept. TraceAnalyzer reads the files of all nodes.
+ *
+ * Layout: a HEADER_SIZE-byte header (magic, version, node id, record size, capacity, start time in epoch nanos),
+ * then capacity records of RECORD_SIZE bytes: sequence number + 1, time in epoch nanos, Lamport clock after the
+ * event, timestamp of the request the event belongs to (0 if none), peer id (NO_PEER if none or all) and
+ * event type. The sequence number is cleared first and written last, so a half-written record reads as empty.
+ */
+public class TraceRecorder {
+
+    // Stored by ordinal: only ever append
+    public enum Event {
+        REQUEST_SENT, REQUEST_RECEIVED, REPLY_SENT, REPLY_RECEIVED, RELEASE_SENT, RELEASE_RECEIVED, ENTER, EXIT, ABANDON,
+        ENTER_SHARED
+    }
+
+    public static final int NO_PEER = -1;
+
+    static final int MAGIC = 0x52415452;  // "RATR"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 40;
+    static final int MAX_EVENTS = 1 << 25;
+
+    private static final TraceRecorder DISABLED = new TraceRecorder();
+
+    private final MappedByteBuffer buffer;
+    private final int mask;
+    private final AtomicLong sequence;
+    private final long startEpochNanos;
+    private final long startNanos;
+
+    private TraceRecorder() {
+        this.buffer = null;
+        this.mask = 0;
+        this.sequence = null;
+        this.startEpochNanos = 0;
+        this.startNanos = 0;
+    }
+
+    private TraceRecorder(int nodeId, File file, int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        // A new run starts from an empty ring; the mapping stays valid once the file is closed
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(size);
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        this.mask = capacity - 1;
+        this.sequence = new AtomicLong();
+        Instant now = Instant.now();
+        this.startNanos = System.nanoTime();
+        this.startEpochNanos = TimeUnit.SECONDS.toNanos(now.getEpochSecond()) + now.getNano();
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, nodeId);
+        buffer.putInt(12, RECORD_SIZE);
+        buffer.putLong(16, capacity);
+        buffer.putLong(24, startEpochNanos);
+    }
+
+    // Recorder for nodeId as configured by trace.dir and trace.events (rounded up to a power of two, so a slot
+    // is found with a mask); a disabled one if tracing is off or the file cannot be created
+    public static TraceRecorder open(int nodeId) {
+        if (Config.TRACE_DIR == null) {
+            return DISABLED;
+        }
+        if (Config.TRACE_EVENTS < 1 || Config.TRACE_EVENTS > MAX_EVENTS) {
+            throw new IllegalArgumentException("trace.events must be between 1 and " + MAX_EVENTS + ", got " + Config.TRACE_EVENTS);
+        }
+        File directory = new File(Config.TRACE_DIR);
+        directory.mkdirs();
+        try {
+            int capacity = Integer.highestOneBit(Config.TRACE_EVENTS - 1) << 1;
+            return new TraceRecorder(nodeId, new File(directory, "node" + nodeId + ".trace"), Math.max(1, capacity));
+        } catch (IOException e) {
+            Logger.logNode(nodeId, Logger.Level.ERROR, "Failed to open trace file, tracing disabled: " + e.getMessage());
+            return DISABLED;
+        }
+    }
+
+    public boolean isEnabled() {
+        return buffer != null;
+    }
+
+    // Safe from any thread: every event gets its own slot
+    public void record(Event event, int peer, long stamp, long clock) {
+        if (buffer == null) {
+            return;
+        }
+        long seq = sequence.getAndIncrement();
+        int offset = HEADER_SIZE + (int) (seq & mask) * RECORD_SIZE;
+        buffer.putLong(offset, 0);
+        buffer.putLong(offset + 8, startEpochNanos + (System.nanoTime() - startNanos));
+        buffer.putLong(offset + 16, clock);
+        buffer.putLong(offset + 24, stamp);
+        buffer.putInt(offset + 32, peer);
+        buffer.putInt(offset + 36, event.ordinal());
+        buffer.putLong(offset, seq + 1);
+    }
+
+    public long getRecorded() {
+        return buffer == null ? 0 : sequence.get();
+    }
+
+    // Write the mapped pages to disk; only needed to survive the machine, not the process, going down
+    public void close() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the simulation asks of each node: when acquisitions arrive, how long the critical section is held, and
+ * which share of the acquisitions only read and take it shared.
+ * The closed loop waits a think time after each acquisition before the next; the open-loop arrival processes
+ * (fixed rate, Poisson, bursts) issue acquisitions on schedule whether or not earlier ones have finished.
+ * Built from the workload.* system properties (see Config).
+ */
+public class Workload {
+
+    public enum Arrival {
+        CLOSED, FIXED, POISSON, BURST
+    }
+
+    private final Arrival arrival;
+    private final double ratePerSecond;
+    private final int burstSize;
+    private final Distribution thinkTime;
+    private final Distribution csTime;
+    private final double skew;
+    private final double readFraction;
+
+    public Workload(Arrival arrival, double ratePerSecond, int burstSize, Distribution thinkTime, Distribution csTime, double skew,
+                    double readFraction) {
+        if (arrival != Arrival.CLOSED && ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Open-loop workloads need a positive rate, got " + ratePerSecond);
+        }
+        if (burstSize < 1) {
+            throw new IllegalArgumentException("Burst size must be at least 1, got " + burstSize);
+        }
+        if (readFraction < 0 || readFraction > 1) {
+            throw new IllegalArgumentException("Read fraction must be in [0, 1], got " + readFraction);
+        }
+        this.arrival = arrival;
+        this.ratePerSecond = ratePerSecond;
+        this.burstSize = burstSize;
+        this.thinkTime = thinkTime;
+        this.csTime = csTime;
+        this.skew = skew;
+        this.readFraction = readFraction;
+    }
+
+    public static Workload fromConfig() {
+        Arrival arrival;
+        try {
+            arrival = Arrival.valueOf(Config.WORKLOAD_ARRIVAL.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown workload.arrival '" + Config.WORKLOAD_ARRIVAL
+                + "', expected closed, fixed, poisson or burst");
+        }
+        return new Workload(arrival, Config.WORKLOAD_RATE, Config.WORKLOAD_BURST_SIZE,
+            Distribution.parse(Config.WORKLOAD_THINK_TIME), Distribution.parse(Config.WORKLOAD_CS_TIME), Config.WORKLOAD_SKEW,
+            Config.WORKLOAD_READS);
+    }
+
+    public Arrival getArrival() {
+        return arrival;
+    }
+
+    public boolean isOpenLoop() {
+        return arrival != Arrival.CLOSED;
+    }
+
+    public int getBurstSize() {
+        return arrival == Arrival.BURST ? burstSize : 1;
+    }
+
+    public Distribution getThinkTime() {
+        return thinkTime;
+    }
+
+    public Distribution getCsTime() {
+        return csTime;
+    }
+
+    // Share of the load carried by the node at index among count nodes, averaging 1 over all of them.
+    // Without skew every node gets 1; with skew s the weights follow Zipf, (index + 1)^-s.
+    public double loadFactor(int index, int count) {
+        if (skew == 0 || count < 2) {
+            return 1;
+        }
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            total += Math.pow(i + 1, -skew);
+        }
+        return count * Math.pow(index + 1, -skew) / total;
+    }
+
+    // Open loop: nanoseconds from one arrival (or burst) to the next at a node with the given load factor
+    public long nextArrivalNanos(double loadFactor) {
+        return nextArrivalNanos(loadFactor, ThreadLocalRandom.current());
+    }
+
+    public long nextArrivalNanos(double loadFactor, Random random) {
+        double meanNanos = TimeUnit.SECONDS.toNanos(getBurstSize()) / (ratePerSecond * loadFactor);
+        if (arrival == Arrival.POISSON) {
+            return (long) (-Math.log(1.0 - random.nextDouble()) * meanNanos);
+        }
+        return (long) meanNanos;
+    }
+
+    // Whether the next acquisition only reads. Without reads no random number is drawn, so seeded runs
+    // replay as before.
+    public boolean isRead(Random random) {
+        return readFraction > 0 && random.nextDouble() < readFraction;
+    }
+
+    public double getReadFraction() {
+        return readFraction;
+    }
+
+    // Closed loop: think time before the next acquisition; a busier node thinks proportionally less
+    public long thinkTimeNanos(double loadFactor) {
+        return thinkTimeNanos(loadFactor, ThreadLocalRandom.current());
+    }
+
+    public long thinkTimeNanos(double loadFactor, Random random) {
+        return (long) (thinkTime.sampleNanos(random) / loadFactor);
+    }
+
+    @Override
+    public String toString() {
+        String load = isOpenLoop()
+            ? arrival.name().toLowerCase(Locale.ROOT) + " arrivals at " + String.format(Locale.ROOT, "%.2f", ratePerSecond) + "/s per node"
+                + (arrival == Arrival.BURST ? " in bursts of " + burstSize : "")
+            : "closed loop, think time " + thinkTime + " ms";
+        return load + ", CS time " + csTime + " ms" + (skew != 0 ? ", skew " + skew : "")
+            + (readFraction > 0 ? ", " + String.format(Locale.ROOT, "%.0f", readFraction * 100) + "% reads" : "");
+    }
+
+    /**
+     * Random duration in milliseconds: "50" (fixed), "uniform:10-100" or "exp:20" (exponential with that mean).
+     */
+    public static class Distribution {
+
+        private enum Kind {
+            FIXED, UNIFORM, EXPONENTIAL
+        }
+
+        private final Kind kind;
+        private final double a;
+        private final double b;
+
+        private Distribution(Kind kind, double a, double b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        public static Distribution parse(String spec) {
+            String trimmed = spec.trim().toLowerCase(Locale.ROOT);
+            try {
+                if (trimmed.startsWith("uniform:")) {
+                    String[] bounds = trimmed.substring("uniform:".length()).split("-");
+                    double low = Double.parseDouble(bounds[0]);
+                    double high = Double.parseDouble(bounds[1]);
+                    if (bounds.length == 2 && low >= 0 && high >= low) {
+                        return new Distribution(Kind.UNIFORM, low, high);
+                    }
+                } else if (trimmed.startsWith("exp:")) {
+                    double mean = Double.parseDouble(trimmed.substring("exp:".length()));
+                    if (mean >= 0) {
+                        return new Distribution(Kind.EXPONENTIAL, mean, mean);
+                    }
+                } else {
+                    double value = Double.parseDouble(trimmed.startsWith("fixed:") ? trimmed.substring("fixed:".length()) : trimmed);
+                    if (value >= 0) {
+                        return new Distribution(Kind.FIXED, value, value);
+                    }
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // Reported below
+            }
+            throw new IllegalArgumentException("Invalid duration '" + spec + "', expected e.g. 50, uniform:10-100 or exp:20 (ms)");
+        }
+
+        public long sampleNanos() {
+            return sampleNanos(ThreadLocalRandom.current());
+        }
+
+        // Seeded random sources give reproducible samples
+        public long sampleNanos(Random random) {
+            double millis;
+            switch (kind) {
+                case UNIFORM:
+                    millis = a + random.nextDouble() * (b - a);
+                    break;
+                case EXPONENTIAL:
+                    millis = -Math.log(1.0 - random.nextDouble()) * a;
+                    break;
+                default:
+                    millis = a;
+            }
+            return (long) (millis * 1_000_000);
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case UNIFORM:
+                    return "uniform " + format(a) + "-" + format(b);
+                case EXPONENTIAL:
+                    return "exponential mean " + format(a);
+                default:
+                    return format(a);
+            }
+        }
+
+        private static String format(double value) {
+            return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a Workload against the nodes of this process and measures it. Closed-loop nodes run one
+ * think/acquire/work cycle after another; open-loop nodes get a generator that starts every arrival on
+ * its own task, so latency is measured from the arrival time and includes any wait behind earlier ones.
+ * stop() ends the run and returns the report: throughput, latency percentiles and fairness across nodes.
+ */
+public class WorkloadDriver {
+
+    private final Workload workload;
+    private final List<NodeImpl> nodes;
+    private final double[] loadFactors;
+    private final LongAdder[] acquisitions;
+    private final AtomicInteger[] outstanding;
+    private final LongAdder timeouts;
+    private final LongAdder dropped;
+    private final LatencyHistogram latency;
+    private final List<Future<?>> loops;
+    private final Set<Thread> acquirers;
+    private volatile boolean stopped;
+    private long startNanos;
+
+    public WorkloadDriver(Workload workload, List<NodeImpl> nodes) {
+        this.workload = workload;
+        this.nodes = nodes;
+        this.loadFactors = new double[nodes.size()];
+        this.acquisitions = new LongAdder[nodes.size()];
+        this.outstanding = new AtomicInteger[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            loadFactors[i] = workload.loadFactor(i, nodes.size());
+            acquisitions[i] = new LongAdder();
+            outstanding[i] = new AtomicInteger();
+        }
+        this.timeouts = new LongAdder();
+        this.dropped = new LongAdder();
+        this.latency = new LatencyHistogram();
+        this.loops = new ArrayList<>();
+        this.acquirers = ConcurrentHashMap.newKeySet();
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+        for (int i = 0; i < nodes.size(); i++) {
+            int index = i;
+            loops.add(Threads.start(workload.isOpenLoop() ? () -> generate(index) : () -> cycle(index)));
+        }
+    }
+
+    // End the run: no new acquisitions, the ones in progress are cancelled
+    public Report stop() {
+        stopped = true;
+        long elapsed = System.nanoTime() - startNanos;
+        for (Future<?> loop : loops) {
+            loop.cancel(true);
+        }
+        for (Thread acquirer : acquirers) {
+            acquirer.interrupt();
+        }
+
+        long[] counts = new long[nodes.size()];
+        int[] nodeIds = new int[nodes.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = acquisitions[i].sum();
+            nodeIds[i] = nodes.get(i).getNodeId();
+        }
+        return new Report(workload, elapsed, nodeIds, counts, loadFactors, timeouts.sum(), dropped.sum(), latency.snapshot());
+    }
+
+    // Closed loop: think, then acquire, work and release, until stopped
+    private void cycle(int index) {
+        try {
+            while (!stopped) {
+                sleepNanos(workload.thinkTimeNanos(loadFactors[index]));
+                acquire(index, System.nanoTime());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Open loop: start each arrival on schedule, dropping it if the node already has too many in progress
+    private void generate(int index) {
+        long next = System.nanoTime();
+        try {
+            while (!stopped) {
+                next += workload.nextArrivalNanos(loadFactors[index]);
+                sleepNanos(next - System.nanoTime());
+                for (int i = 0; i < workload.getBurstSize() && !stopped; i++) {
+                    if (outstanding[index].incrementAndGet() > Config.WORKLOAD_MAX_OUTSTANDING) {
+                        outstanding[index].decrementAndGet();
+                        dropped.increment();
+                        continue;
+                    }
+                    long arrival = next;
+                    Threads.start(() -> {
+                        try {
+                            acquire(index, arrival);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            outstanding[index].decrementAndGet();
+                        }
+                    });
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // One acquisition, latency counted from arrivalNanos to entering the critical section
+    private void acquire(int index, long arrivalNanos) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        acquirers.add(current);
+        try {
+            if (stopped) {
+                return;
+            }
+            NodeImpl node = nodes.get(index);
+            DistributedMutex mutex = workload.isRead(ThreadLocalRandom.current()) ? node.getSharedMutex() : node.getMutex();
+            if (!mutex.tryLock(Config.NODE_RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                return;
+            }
+            try {
+                latency.record(System.nanoTime() - arrivalNanos);
+                acquisitions[index].increment();
+                sleepNanos(workload.getCsTime().sampleNanos());
+            } finally {
+                mutex.unlock();
+            }
+        } finally {
+            acquirers.remove(current);
+        }
+    }
+
+    private static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } else if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Outcome of a run. Fairness is Jain's index over each node's acquisitions divided by its load factor:
+     * 1.0 when every node got the share of the critical section it asked for, 1/n when one node got it all.
+     */
+    public static class Report {
+
+        private final Workload workload;
+        private final long elapsedNanos;
+        private final int[] nodeIds;
+        private final long[] acquisitions;
+        private final double[] loadFactors;
+        private final long timeouts;
+        private final long dropped;
+        private final LatencyHistogram.Snapshot latency;
+
+        private Report(Workload workload, long elapsedNanos, int[] nodeIds, long[] acquisitions, double[] loadFactors,
+                       long timeouts, long dropped, LatencyHistogram.Snapshot latency) {
+            this.workload = workload;
+            this.elapsedNanos = elapsedNanos;
+            this.nodeIds = nodeIds;
+            this.acquisitions = acquisitions;
+            this.loadFactors = loadFactors;
+            this.timeouts = timeouts;
+            this.dropped = dropped;
+            this.latency = latency;
+        }
+
+        public long getAcquisitions() {
+            long total = 0;
+            for (long count : acquisitions) {
+                total += count;
+            }
+            return total;
+        }
+
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : getAcquisitions() / (elapsedNanos / 1e9);
+        }
+
+        public double getFairness() {
+            double sum = 0;
+            double sumOfSquares = 0;
+            for (int i = 0; i < acquisitions.length; i++) {
+                double share = acquisitions[i] / loadFactors[i];
+                sum += share;
+                sumOfSquares += share * share;
+            }
+            return sumOfSquares == 0 ? 1 : sum * sum / (acquisitions.length * sumOfSquares);
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        public String toText() {
+            int least = 0;
+            int most = 0;
+            for (int i = 1; i < acquisitions.length; i++) {
+                if (acquisitions[i] < acquisitions[least]) {
+                    least = i;
+                }
+                if (acquisitions[i] > acquisitions[most]) {
+                    most = i;
+                }
+            }
+            return "=== Workload report ===\n"
+                + "Workload:      " + workload + "\n"
+                + "Run:           " + acquisitions.length + " node(s), " + format(elapsedNanos / 1e9) + " s\n"
+                + "Acquisitions:  " + getAcquisitions() + " (" + format(getThroughput()) + "/s), timeouts " + timeouts
+                + ", dropped arrivals " + dropped + "\n"
+                + "Latency (ms):  mean=" + format(latency.getMean() / 1e6)
+                + " p50=" + millis(latency.getPercentile(50))
+                + " p90=" + millis(latency.getPercentile(90))
+                + " p99=" + millis(latency.getPercentile(99))
+                + " p99.9=" + millis(latency.getPercentile(99.9))
+                + " max=" + millis(latency.getMax()) + "\n"
+                + "Per node:      min " + acquisitions[least] + " (Node " + nodeIds[least] + "), max " + acquisitions[most]
+                + " (Node " + nodeIds[most] + "), Jain fairness " + String.format(Locale.ROOT, "%.3f", getFairness()) + "\n";
+        }
+
+        private static String millis(long nanos) {
+            return format(nanos / 1e6);
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.ROOT, "%.2f", value);
+        }
+    }
+}
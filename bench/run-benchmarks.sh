@@ -0,0 +1,14 @@
+#!/bin/bash
+# Builds the JMH module and runs the benchmarks, writing JSON results named after the current commit.
+# Extra arguments are passed to JMH, e.g. ./run-benchmarks.sh NodeHandlerBenchmark -p nodes=10
+
+cd "$(dirname "$0")" || exit 1
+
+mvn -B -q package || exit 1
+
+mkdir -p results
+COMMIT=$(git rev-parse --short HEAD 2>/dev/null || echo "working-tree")
+RESULT="results/${COMMIT}.json"
+
+java -jar target/benchmarks.jar -rf json -rff "$RESULT" "$@" || exit 1
+echo "Results written to bench/$RESULT"
@@ -0,0 +1,194 @@
+import benchmarks.ClusterTarget;
+import benchmarks.HandlerTarget;
+
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-process setups for the JMH benchmarks. Lives in the default package next to the application
+ * classes so it can reach package-private NodeImpl methods; the benchmarks use it through the
+ * interfaces in the benchmarks package.
+ */
+public class BenchmarkFixtures {
+
+    public static HandlerTarget newHandlerTarget(int nodes, boolean requesting) throws Exception {
+        return new SingleNode(nodes, requesting);
+    }
+
+    public static ClusterTarget newCluster(int nodes) throws Exception {
+        return new Cluster(nodes);
+    }
+
+    // Peer that accepts every message and never answers
+    private static class SinkNode implements Node {
+
+        private final int nodeId;
+        private volatile long lastRequestTimestamp;
+
+        SinkNode(int nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        @Override
+        public boolean request(int requesterId, long timestamp) {
+            lastRequestTimestamp = timestamp;
+            return false;
+        }
+
+        @Override
+        public boolean requestShared(int requesterId, long timestamp) {
+            return request(requesterId, timestamp);
+        }
+
+        @Override
+        public void reply(int replierId, int requesterId, long requestTimestamp) {
+        }
+
+        @Override
+        public void release(int releaserId) {
+        }
+
+        @Override
+        public int getNodeId() {
+            return nodeId;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return true;
+        }
+    }
+
+    // Node 0 connected to sinks 1..nodes-1; when requesting, a background thread keeps it waiting for replies
+    private static class SingleNode implements HandlerTarget {
+
+        private final NodeImpl node;
+        private final SinkNode firstPeer;
+        private final int strangerId;
+        private Thread requester;
+        private long requestTimestamp;
+
+        SingleNode(int nodes, boolean requesting) throws RemoteException, InterruptedException {
+            Map<Integer, Node> peers = new HashMap<>();
+            for (int id = 1; id < nodes; id++) {
+                peers.put(id, new SinkNode(id));
+            }
+            this.firstPeer = (SinkNode) peers.get(1);
+            this.strangerId = nodes;
+            this.node = new NodeImpl(0, peers, nodes);
+
+            if (requesting) {
+                requester = new Thread(() -> {
+                    try {
+                        node.acquire(Long.MAX_VALUE);
+                    } catch (InterruptedException e) {
+                        // Cancelled by close()
+                    }
+                }, "benchmark-requester");
+                requester.setDaemon(true);
+                requester.start();
+
+                while (firstPeer.lastRequestTimestamp == 0) {
+                    Thread.sleep(1);
+                }
+                requestTimestamp = firstPeer.lastRequestTimestamp;
+            }
+        }
+
+        @Override
+        public boolean request(int requesterId, long timestamp) {
+            try {
+                return node.request(requesterId, timestamp);
+            } catch (RemoteException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void reply(int replierId, long requestTimestamp) {
+            try {
+                node.reply(replierId, 0, requestTimestamp);
+            } catch (RemoteException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void release(int releaserId) {
+            try {
+                node.release(releaserId);
+            } catch (RemoteException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean shouldGrantPermission(int requesterId, long timestamp) {
+            return node.shouldGrantPermission(requesterId, timestamp);
+        }
+
+        @Override
+        public long requestTimestamp() {
+            return requestTimestamp;
+        }
+
+        @Override
+        public int strangerId() {
+            return strangerId;
+        }
+
+        @Override
+        public void close() {
+            if (requester != null) {
+                requester.interrupt();
+                try {
+                    requester.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Nodes 0..nodes-1 calling each other directly
+    private static class Cluster implements ClusterTarget {
+
+        private final NodeImpl[] nodes;
+
+        Cluster(int size) throws RemoteException {
+            nodes = new NodeImpl[size];
+            Map<Integer, Node> all = new HashMap<>();
+            for (int id = 0; id < size; id++) {
+                nodes[id] = new NodeImpl(id, Collections.emptyMap(), size);
+                all.put(id, nodes[id]);
+            }
+            for (NodeImpl node : nodes) {
+                Map<Integer, Node> others = new HashMap<>(all);
+                others.remove(node.getNodeId());
+                node.updateOtherNodes(others);
+            }
+        }
+
+        @Override
+        public int size() {
+            return nodes.length;
+        }
+
+        @Override
+        public void lock(int node) {
+            nodes[node].getMutex().lock();
+        }
+
+        @Override
+        public void unlock(int node) {
+            nodes[node].getMutex().unlock();
+        }
+
+        // Peer channels are left open: releases may still be in flight, and their threads are daemons
+        @Override
+        public void close() {
+        }
+    }
+}
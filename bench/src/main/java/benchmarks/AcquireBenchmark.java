@@ -0,0 +1,79 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency of one lock/unlock of the distributed mutex across N in-process nodes. Under low contention
+ * a single thread acquires on one node; under high contention 8 threads each acquire on their own node
+ * (threads share nodes when there are fewer than 8).
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=ERROR")
+public class AcquireBenchmark {
+
+    private static final int HIGH_CONTENTION_THREADS = 8;
+
+    @State(Scope.Benchmark)
+    public static class Cluster {
+
+        @Param({"2", "10", "50", "200", "500"})
+        private int nodes;
+
+        private ClusterTarget cluster;
+        private final AtomicInteger joined = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            cluster = Fixtures.cluster(nodes);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            cluster.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Member {
+
+        private int node;
+
+        @Setup(Level.Trial)
+        public void join(Cluster cluster) {
+            node = cluster.joined.getAndIncrement() % cluster.cluster.size();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void lowContention(Cluster cluster, Member member) {
+        cluster.cluster.lock(member.node);
+        cluster.cluster.unlock(member.node);
+    }
+
+    @Benchmark
+    @Threads(HIGH_CONTENTION_THREADS)
+    public void highContention(Cluster cluster, Member member) {
+        cluster.cluster.lock(member.node);
+        cluster.cluster.unlock(member.node);
+    }
+}
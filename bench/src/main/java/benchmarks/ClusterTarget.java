@@ -0,0 +1,17 @@
+package benchmarks;
+
+/**
+ * N nodes in one process, connected to each other directly instead of through RMI,
+ * so an acquisition costs the node logic and the peer channels but no network.
+ */
+public interface ClusterTarget extends AutoCloseable {
+
+    int size();
+
+    void lock(int node);
+
+    void unlock(int node);
+
+    @Override
+    void close();
+}
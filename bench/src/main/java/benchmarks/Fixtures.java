@@ -0,0 +1,33 @@
+package benchmarks;
+
+/**
+ * Entry point to the fixtures. The application classes are in the default package, which JMH
+ * benchmarks cannot import, so the default-package BenchmarkFixtures is looked up by name.
+ */
+final class Fixtures {
+
+    private static final String FIXTURES_CLASS = "BenchmarkFixtures";
+
+    private Fixtures() {
+    }
+
+    static HandlerTarget handlerTarget(int nodes, boolean requesting) {
+        try {
+            return (HandlerTarget) Class.forName(FIXTURES_CLASS)
+                .getMethod("newHandlerTarget", int.class, boolean.class)
+                .invoke(null, nodes, requesting);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create handler fixture", e);
+        }
+    }
+
+    static ClusterTarget cluster(int nodes) {
+        try {
+            return (ClusterTarget) Class.forName(FIXTURES_CLASS)
+                .getMethod("newCluster", int.class)
+                .invoke(null, nodes);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create cluster fixture", e);
+        }
+    }
+}
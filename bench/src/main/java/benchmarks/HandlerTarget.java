@@ -0,0 +1,25 @@
+package benchmarks;
+
+/**
+ * A single node whose peers accept every message and never answer, so its message
+ * handlers can be called directly. Implemented next to the application classes by BenchmarkFixtures.
+ */
+public interface HandlerTarget extends AutoCloseable {
+
+    boolean request(int requesterId, long timestamp);
+
+    void reply(int replierId, long requestTimestamp);
+
+    void release(int releaserId);
+
+    boolean shouldGrantPermission(int requesterId, long timestamp);
+
+    // Timestamp of the node's own outstanding request, 0 while it is idle
+    long requestTimestamp();
+
+    // Id of a peer that is not connected to the node, for messages that must not change its state
+    int strangerId();
+
+    @Override
+    void close();
+}
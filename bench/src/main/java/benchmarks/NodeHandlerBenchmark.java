@@ -0,0 +1,89 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the message handlers of one node, called directly. With requesting=false the node
+ * is idle and grants every request; with requesting=true it waits for replies to its own request,
+ * so later requests are deferred and replies go through the timestamp check.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=ERROR")
+public class NodeHandlerBenchmark {
+
+    @Param({"2", "10", "50", "200"})
+    private int nodes;
+
+    @Param({"false", "true"})
+    private boolean requesting;
+
+    private HandlerTarget node;
+    private int peer;
+    private long laterTimestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        node = Fixtures.handlerTarget(nodes, requesting);
+        laterTimestamp = node.requestTimestamp() + 1;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        node.close();
+    }
+
+    // Cycles through the connected peers 1..nodes-1
+    private int nextPeer() {
+        peer = peer % (nodes - 1) + 1;
+        return peer;
+    }
+
+    @Benchmark
+    public boolean request() {
+        return node.request(nextPeer(), laterTimestamp);
+    }
+
+    // Deferred (or granted) and then dropped again, as for a cancelled request
+    @Benchmark
+    public boolean requestThenRelease() {
+        int requester = nextPeer();
+        boolean granted = node.request(requester, laterTimestamp);
+        node.release(requester);
+        return granted;
+    }
+
+    // From a node that was not asked, so the outstanding request is never completed
+    @Benchmark
+    public void reply() {
+        node.reply(node.strangerId(), node.requestTimestamp());
+    }
+
+    @Benchmark
+    public void release() {
+        node.release(nextPeer());
+    }
+
+    // Equal timestamps, so a requesting node also goes through the id tie-break
+    @Benchmark
+    public boolean shouldGrantPermission() {
+        return node.shouldGrantPermission(nextPeer(), node.requestTimestamp());
+    }
+}
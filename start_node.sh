@@ -29,11 +29,14 @@ fi
 
 REGISTRY_IP=$1
 NODE_ID=${2:-0}
+# Pin the node to 2000+id so it falls in the range setup_firewall.sh opens (2000-2009 for ids 0-9)
+NODE_PORT=${NODE_PORT:-$((2000 + NODE_ID))}
 HOST_IP=$(get_ip)
 
 echo "Starting Node on $HOST_IP"
 echo "Connecting to registry at: $REGISTRY_IP:1099"
 echo "Node ID: $NODE_ID"
+echo "Node port: $NODE_PORT"
 echo ""
 
 # Compile if needed
@@ -59,6 +62,7 @@ echo ""
 java -Djava.rmi.server.hostname=$HOST_IP \
      -Dregistry.host=$REGISTRY_IP \
      -Dregistry.port=1099 \
+     -Dnode.port=$NODE_PORT \
      -Djava.rmi.server.useCodebaseOnly=false \
      -Djava.security.policy=file:./security.policy \
      RicartAgrawalaApp multi $NODE_ID 2>&1